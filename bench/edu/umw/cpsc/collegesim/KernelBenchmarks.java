@@ -0,0 +1,576 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Times the model's innermost operations -- the {@link #KERNELS} that
+ * nearly all of a run's time is spent in -- on populations built from a
+ * fixed seed, so that any change to one of them can be measured against a
+ * baseline.
+ * <p></p>
+ * Usage:
+ * <pre>
+ *   KernelBenchmarks [-kernels name,...]   # default all of KERNELS
+ *     [-people num,...]                    # default 1000,10000
+ *     [-groupSize num,...]                 # default 6,30
+ *     [-degree num,...]                    # default 10
+ *     [-attributes num,...]                # default 20
+ *     [-warmup num]                        # Integer; default 3
+ *     [-iterations num]                    # Integer; default 5
+ *     [-iterationMillis num]               # Integer; default 1000
+ *     [-seed num]                          # Long; default 1
+ *     [-columnar]                          # dumpToFiles writes .col files
+ *     [-report file]                       # also write the results as CSV
+ * </pre>
+ * Every kernel is timed at every combination of the values given (the
+ * first option varying slowest.) For each combination, a {@link Fixture}
+ * is built: a {@link Sim} with that many students, each with that many
+ * preferences and that many hobbies (<code>-attributes</code>), created and
+ * started just as a run would, and then given groups of exactly
+ * <code>-groupSize</code> members (one group per that many students) and
+ * <code>-degree</code> friends each on average, chosen at random. The same
+ * seed always builds the same fixture.
+ * <p></p>
+ * Each kernel then runs for <code>-warmup</code> iterations, which are
+ * thrown away, and <code>-iterations</code> more, each of which repeats it
+ * on different students and groups for <code>-iterationMillis</code> and
+ * reports the mean time per operation. Kernels that change the fixture too
+ * much to be repeated indefinitely (encounter and decay) instead get a
+ * freshly built fixture for each iteration, and do a fixed number of
+ * operations: one month's worth. The table printed gives the mean,
+ * standard deviation, minimum, median, and maximum over the iterations.
+ * <p></p>
+ * Everything runs in one JVM, so the JIT's view of a kernel can be colored
+ * by the kernels that ran before it; for the most reliable comparison,
+ * time one kernel per run (<code>-kernels</code>), and run with the same
+ * JVM and heap settings before and after the change. dumpToFiles writes
+ * its people, friendships, groups, and dropout files (.csv, or .col) into a
+ * temporary directory, which is removed at the end, never into the current
+ * directory.
+ */
+public class KernelBenchmarks {
+
+    /** The names of the kernels, in the order they are run. */
+    static final String[] KERNELS = { "similarityTo", "encounter", "tickle",
+        "decay", "getPeopleInGroups", "affinityTo", "influenceMembers",
+        "dumpToFiles" };
+
+    // How many random students and groups each fixture picks from, in
+    // advance, for the kernels to operate on (a power of two.)
+    private static final int NUM_PICKS = 1 << 16;
+
+    // The dumpToFiles kernel counts one student in this many as dropping
+    // out each year.
+    private static final int DROPOUT_STRIDE = 20;
+
+    // Where each iteration's results go, so that the JIT can't decide the
+    // kernels' work is unused.
+    static volatile double sink;
+
+    /**
+     * A simulation set up for timing kernels on, with the size, group size,
+     * degree, and number of attributes passed. The simulation is started,
+     * but never stepped, and writes no output unless a kernel asks it to,
+     * and then only to files in the directory passed.
+     */
+    static class Fixture {
+
+        final Sim sim;
+        final Parameters params;
+        final File outputDirectory;
+
+        // The current month, and random picks of students (by their slot in
+        // the Population) and groups.
+        final int month;
+        private final int[] personPicks = new int[NUM_PICKS];
+        private final int[] groupPicks = new int[NUM_PICKS];
+
+        private final MersenneTwisterFast random;
+
+        Fixture(int people, int groupSize, int degree, int attributes,
+            long seed, boolean columnar, File outputDirectory) {
+            this.outputDirectory = outputDirectory;
+            params = new Parameters();
+            params.seed = seed;
+            params.numSimulationYears = 1;
+            params.initNumPeople = people;
+            params.initNumGroups = Math.max(1, people / groupSize);
+            params.numPreferences = params.preferencePoolSize = attributes;
+            params.numHobbies = params.hobbyPoolSize = attributes;
+            params.writeOutput = false;
+            params.columnarOutput = columnar;
+            params.encounterLogLevel = EventLog.Level.NONE;
+            params.similarityLogLevel = EventLog.Level.NONE;
+            sim = new Sim(seed, params, OutputFiles.in(outputDirectory));
+            sim.start();
+            month = sim.decayScheduler.currentMonth();
+            random = new MersenneTwisterFast(seed);
+
+            resizeGroups(groupSize);
+            befriend((long) people * degree / 2);
+            ageFriendships();
+
+            for (int i = 0; i < NUM_PICKS; i++) {
+                personPicks[i] = random.nextInt(people);
+                groupPicks[i] = random.nextInt(sim.getNumGroups());
+            }
+        }
+
+        /** Returns the student picked for the i'th operation. */
+        Person person(int i) {
+            return sim.getPeople().get(personPicks[i & (NUM_PICKS - 1)]);
+        }
+
+        /** Returns the group picked for the i'th operation. */
+        Group group(int i) {
+            return sim.getGroups().get(groupPicks[i & (NUM_PICKS - 1)]);
+        }
+
+        // Fill up (or thin out) every group to exactly the size passed.
+        private void resizeGroups(int size) {
+            Population people = sim.getPeople();
+            List<Group> groups = sim.getGroups();
+            for (int g = 0; g < groups.size(); g++) {
+                Group group = groups.get(g);
+                while (group.getSize() < size) {
+                    Person p = people.getRandom(random);
+                    if (!group.groupContainsStudent(p)) {
+                        group.addStudent(p);
+                    }
+                }
+                while (group.getSize() > size) {
+                    group.getPersonAtIndex(group.getSize() - 1)
+                        .leaveGroup(group);
+                }
+            }
+        }
+
+        // Make the number passed of new friendships between random pairs of
+        // students.
+        private void befriend(long friendships) {
+            Population people = sim.getPeople();
+            for (long f = 0; f < friendships; ) {
+                Person a = people.getRandom(random);
+                Person b = people.getRandom(random);
+                if (a != b && !friends(a, b)) {
+                    a.makeFriends(b);
+                    f++;
+                }
+            }
+        }
+
+        private boolean friends(Person a, Person b) {
+            for (int i = 0; i < sim.peopleGraph.getDegree(a); i++) {
+                if (sim.peopleGraph.getFriend(a, i) == b) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Spread the friendships' last tickles evenly over the months before
+        // they would decay, as they are in a running simulation (where every
+        // month, some are tickled and some are made.)
+        private void ageFriendships() {
+            Population people = sim.getPeople();
+            for (int x = 0; x < people.size(); x++) {
+                Person p = people.get(x);
+                for (int i = 0; i < sim.peopleGraph.getDegree(p); i++) {
+                    int handle = sim.peopleGraph.getEdge(p, i);
+                    if (sim.peopleGraph.getFirst(handle) == p) {
+                        sim.decayScheduler.tickle(handle,
+                            month - random.nextInt(params.decayThreshold));
+                    }
+                }
+            }
+        }
+
+        void close() {
+            sim.finish();
+        }
+    }
+
+    /**
+     * One of the operations timed. An operation is one call of the method
+     * the kernel is named for (or, for decay, one month's sweep.)
+     */
+    abstract static class Kernel {
+
+        final String name;
+
+        Kernel(String name) {
+            this.name = name;
+        }
+
+        /** Returns the number of operations each iteration does on a fresh
+         * fixture, or 0 if the kernel can be repeated on the same fixture
+         * for as long as an iteration lasts. */
+        int operationsPerFixture(Fixture f) {
+            return 0;
+        }
+
+        /** Prepare the fixture passed for an iteration. */
+        void setUp(Fixture f) {
+        }
+
+        /** Perform the i'th operation of an iteration, returning anything
+         * that depends on its result. */
+        abstract double run(Fixture f, int i);
+
+        /** Undo whatever setUp() did. */
+        void tearDown(Fixture f) {
+        }
+    }
+
+    private static List<Kernel> kernels() {
+        List<Kernel> kernels = new ArrayList<Kernel>();
+        kernels.add(new Kernel("similarityTo") {
+            double run(Fixture f, int i) {
+                return f.person(2 * i).similarityTo(f.person(2 * i + 1));
+            }
+        });
+        // Every student, in turn, encountering params.numToMeetPop others
+        // from the whole student body (meeting or tickling each.)
+        kernels.add(new Kernel("encounter") {
+            int operationsPerFixture(Fixture f) {
+                return f.sim.getNumPeople();
+            }
+            double run(Fixture f, int i) {
+                Population people = f.sim.getPeople();
+                people.get(i).encounter(f.params.numToMeetPop, people, null);
+                return 0;
+            }
+        });
+        kernels.add(new Kernel("tickle") {
+            double run(Fixture f, int i) {
+                Person p = f.person(i);
+                int degree = f.sim.peopleGraph.getDegree(p);
+                if (degree == 0) {
+                    return 0;
+                }
+                p.tickle(f.sim.peopleGraph.getFriend(p, i % degree));
+                return degree;
+            }
+        });
+        // The months until every friendship has decayed, each expiring the
+        // ones last tickled longest ago.
+        kernels.add(new Kernel("decay") {
+            int operationsPerFixture(Fixture f) {
+                return f.params.decayThreshold;
+            }
+            double run(Fixture f, int i) {
+                f.sim.decayScheduler.sweepThrough(f.month + 1 + i);
+                return f.sim.decayScheduler.size();
+            }
+        });
+        kernels.add(new Kernel("getPeopleInGroups") {
+            double run(Fixture f, int i) {
+                return f.person(i).getPeopleInGroups().size();
+            }
+        });
+        kernels.add(new Kernel("affinityTo") {
+            double run(Fixture f, int i) {
+                return f.group(i).affinityTo(f.person(i));
+            }
+        });
+        kernels.add(new Kernel("influenceMembers") {
+            double run(Fixture f, int i) {
+                f.group(i).influenceMembers(null);
+                return 0;
+            }
+        });
+        // A whole year's people, friendships, and groups files, and a
+        // year's worth of dropouts (one student in DROPOUT_STRIDE).
+        kernels.add(new Kernel("dumpToFiles") {
+            List<Person> dropouts = new ArrayList<Person>();
+            void setUp(Fixture f) {
+                f.params.writeOutput = true;
+                Population people = f.sim.getPeople();
+                for (int x = 0; x < people.size(); x += DROPOUT_STRIDE) {
+                    dropouts.add(people.get(x));
+                }
+            }
+            double run(Fixture f, int i) {
+                f.sim.dumpToFiles();
+                f.sim.dumpToDropoutFile(dropouts);
+                return 0;
+            }
+            void tearDown(Fixture f) {
+                f.params.writeOutput = false;
+                dropouts.clear();
+                deleteFiles(f.outputDirectory);
+            }
+        });
+        return kernels;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> names = new ArrayList<String>();
+        int[] people = { 1000, 10000 };
+        int[] groupSizes = { 6, 30 };
+        int[] degrees = { 10 };
+        int[] attributes = { 20 };
+        int warmup = 3;
+        int iterations = 5;
+        int iterationMillis = 1000;
+        long seed = 1;
+        boolean columnar = false;
+        String report = null;
+        try {
+            for (int i=0; i<args.length; i++) {
+                if (args[i].equals("-kernels")) {
+                    String[] ks = value(args, ++i).split(",");
+                    for (int k=0; k<ks.length; k++) {
+                        if (indexOf(KERNELS, ks[k]) < 0) {
+                            throw new IllegalArgumentException(
+                                "No such kernel: " + ks[k]);
+                        }
+                        names.add(ks[k]);
+                    }
+                } else if (args[i].equals("-people")) {
+                    people = values(args, ++i, 2);
+                } else if (args[i].equals("-groupSize")) {
+                    groupSizes = values(args, ++i, 1);
+                } else if (args[i].equals("-degree")) {
+                    degrees = values(args, ++i, 0);
+                } else if (args[i].equals("-attributes")) {
+                    attributes = values(args, ++i, 1);
+                } else if (args[i].equals("-warmup")) {
+                    warmup = Integer.parseInt(value(args, ++i));
+                } else if (args[i].equals("-iterations")) {
+                    iterations = Integer.parseInt(value(args, ++i));
+                } else if (args[i].equals("-iterationMillis")) {
+                    iterationMillis = Integer.parseInt(value(args, ++i));
+                } else if (args[i].equals("-seed")) {
+                    seed = Long.parseLong(value(args, ++i));
+                } else if (args[i].equals("-columnar")) {
+                    columnar = true;
+                } else if (args[i].equals("-report")) {
+                    report = value(args, ++i);
+                } else {
+                    throw new IllegalArgumentException(
+                        "No such option: " + args[i]);
+                }
+            }
+            if (warmup < 0 || iterations < 1 || iterationMillis < 1) {
+                throw new IllegalArgumentException("-iterations and " +
+                    "-iterationMillis must be positive");
+            }
+            for (int p=0; p<people.length; p++) {
+                if (max(groupSizes) > people[p] ||
+                    max(degrees) > people[p] / 2) {
+                    throw new IllegalArgumentException("Groups can't be " +
+                        "larger than the population, nor degrees more " +
+                        "than half of it");
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsageAndQuit();
+            return;
+        }
+        Log.LEVEL = Log.WARN;
+
+        List<Kernel> kernels = kernels();
+        for (int k = kernels.size() - 1; k >= 0; k--) {
+            if (!names.isEmpty() && !names.contains(kernels.get(k).name)) {
+                kernels.remove(k);
+            }
+        }
+
+        PrintWriter csv = null;
+        if (report != null) {
+            csv = new PrintWriter(new BufferedWriter(new FileWriter(report)));
+            csv.println("kernel,people,groupSize,degree,attributes," +
+                "iterations,meanOperations,meanNs,sdNs,minNs,medianNs,maxNs");
+        }
+        System.out.println(String.format("%-18s %8s %6s %6s %5s %12s %10s " +
+            "%12s %12s %12s", "kernel", "people", "group", "degree",
+            "attrs", "ns/op", "sd", "min", "median", "max"));
+        File outputDirectory =
+            Files.createTempDirectory("KernelBenchmarks").toFile();
+        try {
+            for (int p=0; p<people.length; p++) {
+              for (int g=0; g<groupSizes.length; g++) {
+                for (int d=0; d<degrees.length; d++) {
+                  for (int a=0; a<attributes.length; a++) {
+                    Fixture shared = null;
+                    for (int k=0; k<kernels.size(); k++) {
+                        Kernel kernel = kernels.get(k);
+                        RunningStatistics ns = new RunningStatistics();
+                        RunningStatistics operations = new RunningStatistics();
+                        for (int it=0; it<warmup+iterations; it++) {
+                            Fixture f;
+                            int fixed = 0;
+                            if (shared != null) {
+                                fixed = kernel.operationsPerFixture(shared);
+                            }
+                            if (shared == null || fixed > 0) {
+                                f = new Fixture(people[p], groupSizes[g],
+                                    degrees[d], attributes[a], seed,
+                                    columnar, outputDirectory);
+                                fixed = kernel.operationsPerFixture(f);
+                                if (shared == null && fixed == 0) {
+                                    shared = f;
+                                }
+                            } else {
+                                f = shared;
+                            }
+                            long[] result = iterate(kernel, f, fixed,
+                                iterationMillis * 1000000L);
+                            if (f != shared) {
+                                f.close();
+                            }
+                            if (it >= warmup) {
+                                ns.add(result[0] / (double) result[1]);
+                                operations.add(result[1]);
+                            }
+                        }
+                        System.out.println(String.format("%-18s %8d %6d " +
+                            "%6d %5d %12.1f %10.1f %12.1f %12.1f %12.1f",
+                            kernel.name, people[p], groupSizes[g],
+                            degrees[d], attributes[a], ns.getMean(),
+                            ns.getStandardDeviation(), ns.getMin(),
+                            ns.getQuantile(2), ns.getMax()));
+                        if (csv != null) {
+                            csv.println(kernel.name + "," + people[p] + "," +
+                                groupSizes[g] + "," + degrees[d] + "," +
+                                attributes[a] + "," + ns.getCount() + "," +
+                                operations.getMean() + "," + ns.getMean() +
+                                "," + ns.getStandardDeviation() + "," +
+                                ns.getMin() + "," + ns.getQuantile(2) + "," +
+                                ns.getMax());
+                            csv.flush();
+                        }
+                    }
+                    if (shared != null) {
+                        shared.close();
+                    }
+                  }
+                }
+              }
+            }
+        } finally {
+            if (csv != null) {
+                csv.close();
+            }
+            deleteFiles(outputDirectory);
+            outputDirectory.delete();
+        }
+    }
+
+    // Delete every file in the directory passed.
+    private static void deleteFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+        }
+    }
+
+    // Run one iteration of the kernel passed on the fixture passed: the
+    // number of operations passed, if positive, or otherwise as many as fit
+    // in the number of nanoseconds passed. Returns the nanoseconds taken and
+    // the number of operations.
+    private static long[] iterate(Kernel kernel, Fixture f, int operations,
+        long limit) {
+        System.gc();
+        kernel.setUp(f);
+        double result = 0;
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        if (operations > 0) {
+            for (int i = 0; i < operations; i++) {
+                result += kernel.run(f, i);
+            }
+            count = operations;
+            elapsed = System.nanoTime() - start;
+        } else {
+            // Check the time after batches of operations, doubling the
+            // batch while they take under a millisecond.
+            int batch = 1;
+            do {
+                long batchStart = System.nanoTime();
+                for (int i = 0; i < batch; i++) {
+                    result += kernel.run(f, (int) count++);
+                }
+                long now = System.nanoTime();
+                elapsed = now - start;
+                if (now - batchStart < 1000000 && batch < (1 << 20)) {
+                    batch *= 2;
+                }
+            } while (elapsed < limit);
+        }
+        kernel.tearDown(f);
+        sink = result;
+        return new long[] { elapsed, count };
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("No value given for " +
+                args[i - 1]);
+        }
+        return args[i];
+    }
+
+    // The comma-separated integers at args[i], each at least min.
+    private static int[] values(String[] args, int i, int min) {
+        String[] vs = value(args, i).split(",");
+        int[] values = new int[vs.length];
+        for (int v = 0; v < vs.length; v++) {
+            values[v] = Integer.parseInt(vs[v]);
+            if (values[v] < min) {
+                throw new IllegalArgumentException(args[i - 1] +
+                    " must be at least " + min);
+            }
+        }
+        return values;
+    }
+
+    private static int indexOf(String[] strings, String s) {
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i].equals(s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int max(int[] values) {
+        int max = values[0];
+        for (int i = 1; i < values.length; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    public static void printUsageAndQuit() {
+        System.err.println(
+        "Usage: KernelBenchmarks\n" +
+        "  [-kernels name,...]                  # default all\n" +
+        "  [-people num,...]                    # default 1000,10000\n" +
+        "  [-groupSize num,...]                 # default 6,30\n" +
+        "  [-degree num,...]                    # default 10\n" +
+        "  [-attributes num,...]                # default 20\n" +
+        "  [-warmup num]                        # Integer; default 3\n" +
+        "  [-iterations num]                    # Integer; default 5\n" +
+        "  [-iterationMillis num]               # Integer; default 1000\n" +
+        "  [-seed num]                          # Long; default 1\n" +
+        "  [-columnar]                          # dumpToFiles writes .col\n" +
+        "  [-report file]                       # also write CSV here\n" +
+        "Kernels: " + String.join(",", KERNELS));
+        System.exit(1);
+    }
+}
@@ -0,0 +1,318 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import sim.engine.*;
+
+/**
+ * Runs the whole simulation, headless, at a series of increasingly large
+ * populations, and reports how its speed and memory use scale -- so that
+ * it's clear where (and why) the model stops being practical.
+ * <p></p>
+ * Usage is that of {@link Sim#main}, plus:
+ * <pre>
+ *   [-sizes num,...]         # default 1000,10000,100000,1000000
+ *   [-timeLimit seconds]     # Integer; default 0 (none)
+ * </pre>
+ * Each size is a run of <code>-maxTime</code> years with that many initial
+ * students, with the other options as given, except that the number of
+ * initial groups, freshmen per year, and new groups per year are scaled in
+ * proportion to it (from their ratios to <code>-initNumPeople</code>; by
+ * default, one group per 20 students, a quarter of the students entering
+ * each year, and one new group per 400), and that the output is formatted
+ * as usual but thrown away instead of written (see {@link
+ * OutputFiles#DISCARD}), so that only computing -- the output's included --
+ * is timed. Sizes are run one after another, in one JVM. A size that runs out
+ * of memory, or whose run goes past <code>-timeLimit</code>, is reported as
+ * such, and the larger ones aren't tried.
+ * <p></p>
+ * For each size, <code>scaling<i>SIMTAG</i>.csv</code> gets one row: how
+ * long creating the population and running the years took, the
+ * student-steps (one student's month) per second and mean seconds per year
+ * over the finished years, the peak heap (the sum of the heap pools'
+ * peaks, which bounds it from above), the heap still in use at the end of
+ * the run after a full collection (while the simulation is still
+ * reachable), and the time and number of
+ * garbage collections during the run. <code>scaling_years<i>SIMTAG</i>.csv
+ * </code> gets a row for each year of each size, timed from May to May (the
+ * first from the start of the run), with the number of students and groups,
+ * student-steps, seconds, student-steps per second, and heap in use that
+ * May. The options are written to <code>scaling_params<i>SIMTAG</i>.txt
+ * </code>.
+ * <p></p>
+ * A run's timings include whatever the JIT is doing at the time, and the
+ * sizes after the first run on a warmed-up JVM; to time one size on its
+ * own, give just that size.
+ */
+public class ScalingBenchmark {
+
+    /** The sizes run if <code>-sizes</code> isn't given. */
+    static final int[] SIZES = { 1000, 10000, 100000, 1000000 };
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    // The outcome of one size's run.
+    private static class Result {
+        Parameters params;
+        String status = "ok";
+        double setupSeconds;
+        double runSeconds;
+        double peakHeapMB;
+        double liveHeapMB = Double.NaN;
+        double gcSeconds;
+        long gcCount;
+        // Per year: the students and groups at the end of it, the seconds
+        // it took, and the heap in use at its end.
+        List<long[]> years = new ArrayList<long[]>();
+
+        long studentSteps(int y) {
+            return years.get(y)[0] * Sim.NUM_MONTHS_IN_ACADEMIC_YEAR;
+        }
+
+        double seconds(int y) {
+            return years.get(y)[2] / 1e9;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Parameters base;
+        int[] sizes = SIZES;
+        int timeLimit = 0;
+        boolean logLevelGiven = false;
+        try {
+            base = Parameters.parse(args);
+            for (int i=0; i<args.length; i++) {
+                if (args[i].equals("-sizes")) {
+                    String[] vs = value(args, ++i).split(",");
+                    sizes = new int[vs.length];
+                    for (int v=0; v<vs.length; v++) {
+                        sizes[v] = Integer.parseInt(vs[v]);
+                        if (sizes[v] < 1) {
+                            throw new IllegalArgumentException(
+                                "-sizes must be positive");
+                        }
+                    }
+                } else if (args[i].equals("-timeLimit")) {
+                    timeLimit = Integer.parseInt(value(args, ++i));
+                } else if (args[i].equals("-logLevel")) {
+                    logLevelGiven = true;
+                }
+            }
+            if (base.burnInYears > 0) {
+                throw new IllegalArgumentException(
+                    "-burnIn isn't supported");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsageAndQuit();
+            return;
+        }
+        Log.LEVEL = logLevelGiven ? base.logLevel : Log.WARN;
+
+        writeParams(base, sizes, timeLimit);
+
+        PrintWriter summary = new PrintWriter(new BufferedWriter(
+            new FileWriter("scaling" + base.simtag + ".csv")));
+        PrintWriter years = new PrintWriter(new BufferedWriter(
+            new FileWriter("scaling_years" + base.simtag + ".csv")));
+        summary.println("size,initNumGroups,numFreshmenPerYear," +
+            "numNewGroupsPerYear,status,years,setupSeconds,runSeconds," +
+            "studentSteps,studentStepsPerSecond,secondsPerYear,peakHeapMB," +
+            "liveHeapMB,gcSeconds,gcCount");
+        years.println("size,year,students,groups,studentSteps,seconds," +
+            "studentStepsPerSecond,heapUsedMB");
+        try {
+            for (int s=0; s<sizes.length; s++) {
+                Result result = run(scale(base, sizes[s]),
+                    timeLimit * 1000000000L);
+                long steps = 0;
+                double seconds = 0;
+                for (int y=0; y<result.years.size(); y++) {
+                    long[] year = result.years.get(y);
+                    steps += result.studentSteps(y);
+                    seconds += result.seconds(y);
+                    years.println(sizes[s] + "," + y + "," + year[0] + "," +
+                        year[1] + "," + result.studentSteps(y) + "," +
+                        result.seconds(y) + "," +
+                        result.studentSteps(y) / result.seconds(y) + "," +
+                        year[3] / MEGABYTE);
+                }
+                int numYears = result.years.size();
+                Parameters p = result.params;
+                summary.println(sizes[s] + "," + p.initNumGroups + "," +
+                    p.numFreshmenPerYear + "," + p.numNewGroupsPerYear + "," +
+                    result.status + "," + numYears + "," +
+                    result.setupSeconds + "," + result.runSeconds + "," +
+                    steps + "," + steps / seconds + "," + seconds / numYears +
+                    "," + result.peakHeapMB + "," + result.liveHeapMB + "," +
+                    result.gcSeconds + "," + result.gcCount);
+                summary.flush();
+                years.flush();
+                System.out.println(String.format("%8d students: %s, %d " +
+                    "years, %.1f student-steps/s, %.2fs/year, peak heap " +
+                    "%.0fMB, GC %.2fs", sizes[s], result.status, numYears,
+                    steps / seconds, seconds / numYears, result.peakHeapMB,
+                    result.gcSeconds));
+                if (!result.status.equals("ok")) {
+                    break;
+                }
+            }
+        } finally {
+            summary.close();
+            years.close();
+        }
+    }
+
+    // The settings passed, with the population, and the numbers of groups
+    // and freshmen, scaled to the size passed.
+    static Parameters scale(Parameters base, int size) {
+        Parameters p = base.copy();
+        double factor = size / (double) base.initNumPeople;
+        p.initNumPeople = size;
+        p.initNumGroups = (int) Math.round(base.initNumGroups * factor);
+        p.numFreshmenPerYear =
+            (int) Math.round(base.numFreshmenPerYear * factor);
+        p.numNewGroupsPerYear =
+            (int) Math.round(base.numNewGroupsPerYear * factor);
+        return p;
+    }
+
+    // Run the simulation with the settings passed, giving up after the
+    // number of nanoseconds passed (if positive.)
+    private static Result run(Parameters params, long limit) {
+        final Result result = new Result();
+        result.params = params;
+        System.gc();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (int i=0; i<pools.size(); i++) {
+            pools.get(i).resetPeakUsage();
+        }
+        long gcMillis = -gcMillis();
+        long gcCount = -gcCount();
+        Sim sim = null;
+        try {
+            final long start = System.nanoTime();
+            sim = new Sim(params.seed, params, OutputFiles.DISCARD);
+            sim.setYearEndObserver(new Steppable() {
+                long yearStart = start;
+                public void step(SimState state) {
+                    Sim sim = (Sim) state;
+                    long now = System.nanoTime();
+                    result.years.add(new long[] { sim.getNumPeople(),
+                        sim.getNumGroups(), now - yearStart,
+                        ManagementFactory.getMemoryMXBean()
+                            .getHeapMemoryUsage().getUsed() });
+                    yearStart = now;
+                }
+            });
+            sim.start();
+            long started = System.nanoTime();
+            result.setupSeconds = (started - start) / 1e9;
+            while (sim.schedule.step(sim)) {
+                if (limit > 0 && System.nanoTime() - start > limit) {
+                    result.status = "timeLimit";
+                    break;
+                }
+            }
+            result.runSeconds = (System.nanoTime() - started) / 1e9;
+            // (The first year was timed from the start of setup.)
+            if (!result.years.isEmpty()) {
+                result.years.get(0)[2] -= started - start;
+            }
+            result.gcSeconds = (gcMillis + gcMillis()) / 1e3;
+            result.gcCount = gcCount + gcCount();
+            result.peakHeapMB = peakHeap(pools) / MEGABYTE;
+            System.gc();
+            result.liveHeapMB = ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage().getUsed() / MEGABYTE;
+            sim.finish();
+        } catch (OutOfMemoryError e) {
+            result.status = "outOfMemory";
+            result.gcSeconds = (gcMillis + gcMillis()) / 1e3;
+            result.gcCount = gcCount + gcCount();
+            result.peakHeapMB = peakHeap(pools) / MEGABYTE;
+            if (sim != null) {
+                sim.finish();
+            }
+        }
+        return result;
+    }
+
+    private static long peakHeap(List<MemoryPoolMXBean> pools) {
+        long peak = 0;
+        for (int i=0; i<pools.size(); i++) {
+            if (pools.get(i).getType() == MemoryType.HEAP) {
+                peak += pools.get(i).getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // The total time and number of collections of every garbage collector
+    // so far.
+    private static long gcMillis() {
+        long total = 0;
+        List<GarbageCollectorMXBean> gcs =
+            ManagementFactory.getGarbageCollectorMXBeans();
+        for (int i=0; i<gcs.size(); i++) {
+            total += Math.max(0, gcs.get(i).getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        List<GarbageCollectorMXBean> gcs =
+            ManagementFactory.getGarbageCollectorMXBeans();
+        for (int i=0; i<gcs.size(); i++) {
+            total += Math.max(0, gcs.get(i).getCollectionCount());
+        }
+        return total;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("No value given for " +
+                args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static void writeParams(Parameters base, int[] sizes,
+        int timeLimit) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(
+            "./scaling_params" + base.simtag + ".txt")));
+        base.print(out);
+        StringBuilder s = new StringBuilder();
+        for (int i=0; i<sizes.length; i++) {
+            s.append(i == 0 ? "" : ",").append(sizes[i]);
+        }
+        out.println("sizes=" + s);
+        out.println("timeLimit=" + timeLimit);
+        out.println("maxMemoryMB=" + Runtime.getRuntime().maxMemory() /
+            MEGABYTE);
+        out.println("processors=" +
+            Runtime.getRuntime().availableProcessors());
+        out.close();
+    }
+
+    /** (public simply to get it in the JavaDoc.) */
+    public static void printUsageAndQuit() {
+        System.err.println(
+        "Usage: ScalingBenchmark [Sim options]  # see Sim\n" +
+        "  [-sizes num,...]                     # default " +
+            "1000,10000,100000,1000000\n" +
+        "  [-timeLimit seconds]                 # Integer; default 0 " +
+            "(none)");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,214 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * A small, fast, splittable random number generator (SplitMix64), usable
+ * anywhere the model expects a {@link MersenneTwisterFast}.
+ * <p></p>
+ * Its entire state is one long, so it costs nothing to create, copy, or
+ * reseed, and independent streams can be derived from a master seed and
+ * any identifying numbers (such as an agent's kind and id) with {@link
+ * #streamSeed(long, long, long)}. That is what lets parts of the model draw
+ * random numbers in an order that doesn't depend on how (or on how many
+ * threads) the work is scheduled.
+ * <p></p>
+ * (Only the generator methods are overridden. None of the Mersenne Twister
+ * state of the superclass is ever allocated or used.)
+ */
+class AgentRandom extends MersenneTwisterFast {
+
+    private static final long serialVersionUID = 1;
+
+    /** Kinds of agent, so that agents of different kinds with the same id
+     * get different streams. (See {@link #forAgent(long, int, int)}.) */
+    static final int PERSON = 0;
+    static final int GROUP = 1;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    AgentRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Returns a seed for the stream identified by the two numbers passed,
+     * derived from the master seed passed.
+     */
+    static long streamSeed(long seed, long a, long b) {
+        return mix64(mix64(seed + GOLDEN_GAMMA * (a + 1)) + GOLDEN_GAMMA *
+            (b + 1));
+    }
+
+    /**
+     * Returns a new generator for the agent of the kind and id passed, whose
+     * stream is derived from the simulation's seed passed. An agent that
+     * draws only from its own generator draws the same numbers no matter
+     * when, or on which thread, it runs.
+     */
+    static AgentRandom forAgent(long seed, int kind, int id) {
+        return new AgentRandom(streamSeed(seed, kind, id));
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public void setSeed(long seed) {
+        state = seed;
+    }
+
+    public void setSeed(int[] array) {
+        long seed = 0;
+        for (int i = 0; i < array.length; i++) {
+            seed = mix64(seed + GOLDEN_GAMMA + array[i]);
+        }
+        state = seed;
+    }
+
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    public int nextInt(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive, got: " + n);
+        }
+        int bits, val;
+        do {
+            bits = (int) (nextLong() >>> 33);
+            val = bits % n;
+        } while (bits - val + (n - 1) < 0);
+        return val;
+    }
+
+    public long nextLong(long n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive, got: " + n);
+        }
+        long bits, val;
+        do {
+            bits = nextLong() >>> 1;
+            val = bits % n;
+        } while (bits - val + (n - 1) < 0);
+        return val;
+    }
+
+    public double nextDouble() {
+        return (nextLong() >>> 11) * (1.0 / (1L << 53));
+    }
+
+    /** (Same semantics as {@link MersenneTwisterFast#nextDouble(boolean,
+     * boolean)}.) */
+    public double nextDouble(boolean includeZero, boolean includeOne) {
+        double d;
+        do {
+            d = nextDouble();
+            if (includeOne && nextBoolean()) {
+                d += 1.0;
+            }
+        } while (d > 1.0 || (!includeZero && d == 0.0));
+        return d;
+    }
+
+    public float nextFloat() {
+        return (nextInt() >>> 8) / ((float) (1 << 24));
+    }
+
+    public float nextFloat(boolean includeZero, boolean includeOne) {
+        float f;
+        do {
+            f = nextFloat();
+            if (includeOne && nextBoolean()) {
+                f += 1.0f;
+            }
+        } while (f > 1.0f || (!includeZero && f == 0.0f));
+        return f;
+    }
+
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    public boolean nextBoolean(float probability) {
+        return nextBoolean((double) probability);
+    }
+
+    public boolean nextBoolean(double probability) {
+        if (probability < 0.0 || probability > 1.0) {
+            throw new IllegalArgumentException(
+                "probability must be between 0.0 and 1.0 inclusive.");
+        }
+        if (probability == 0.0) {
+            return false;
+        }
+        if (probability == 1.0) {
+            return true;
+        }
+        return nextDouble() < probability;
+    }
+
+    public byte nextByte() {
+        return (byte) (nextLong() >>> 56);
+    }
+
+    public short nextShort() {
+        return (short) (nextLong() >>> 48);
+    }
+
+    public char nextChar() {
+        return (char) (nextLong() >>> 48);
+    }
+
+    public void nextBytes(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = nextByte();
+        }
+    }
+
+    /** (Polar method; unlike the superclass, no second value is cached.) */
+    public double nextGaussian() {
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        return v1 * StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    }
+
+    public void clearGaussian() {
+    }
+
+    public Object clone() {
+        AgentRandom copy = new AgentRandom(0);
+        copy.state = state;
+        return copy;
+    }
+
+    public boolean stateEquals(MersenneTwisterFast other) {
+        return other instanceof AgentRandom &&
+            ((AgentRandom) other).state == state;
+    }
+
+    public void writeState(DataOutputStream stream) throws IOException {
+        stream.writeLong(state);
+    }
+
+    public void readState(DataInputStream stream) throws IOException {
+        state = stream.readLong();
+    }
+}
@@ -0,0 +1,129 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The numeric attributes (constants, preferences, and hobbies) of every
+ * student in the simulation, packed into one contiguous array of doubles.
+ * <p></p>
+ * Each student owns one <b>row</b> of the store, identified by a small dense
+ * integer handed out by {@link #allocateRow()}. A row holds that student's
+ * {@link Parameters#constantAttributePoolSize} constant attributes,
+ * followed by their {@link Parameters#preferencePoolSize} preferences,
+ * followed by their {@link Parameters#hobbyPoolSize} (raw, un-normalized)
+ * hobbies, followed by
+ * the same number of normalized hobbies (a cache maintained by that
+ * student's {@link HobbyVector}). Rows of
+ * students who have left the university are recycled for new students, so
+ * the store stays as small as the current population.
+ * <p></p>
+ * Keeping everyone's attributes side by side (rather than in a boxed list per
+ * {@link Person}) means that the similarity computations at the heart of
+ * every encounter run over primitive memory.
+ */
+class AttributeStore implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int numConstants;
+    private final int numPreferences;
+    private final int numHobbies;
+    private final int width;
+
+    private double[] values;
+    private int capacity;
+
+    // Rows below this number have been handed out at some point.
+    private int numRowsUsed;
+
+    // Rows that were released and can be handed out again.
+    private int[] freeRows = new int[16];
+    private int numFreeRows;
+
+    AttributeStore(int numConstants, int numPreferences, int numHobbies) {
+        this.numConstants = numConstants;
+        this.numPreferences = numPreferences;
+        this.numHobbies = numHobbies;
+        this.width = numConstants + numPreferences + 2 * numHobbies;
+        this.capacity = INITIAL_CAPACITY;
+        this.values = new double[capacity * width];
+    }
+
+    /**
+     * Reserve a fresh row, all of whose attributes are zero, and return its
+     * number.
+     */
+    int allocateRow() {
+        int row;
+        if (numFreeRows > 0) {
+            row = freeRows[--numFreeRows];
+            Arrays.fill(values, row * width, (row + 1) * width, 0.0);
+        } else {
+            if (numRowsUsed == capacity) {
+                capacity *= 2;
+                values = Arrays.copyOf(values, capacity * width);
+            }
+            row = numRowsUsed++;
+        }
+        return row;
+    }
+
+    /**
+     * Return the row passed to the store, so that it can be reused for some
+     * future student. The caller must not use the row afterwards.
+     */
+    void releaseRow(int row) {
+        if (numFreeRows == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, numFreeRows * 2);
+        }
+        freeRows[numFreeRows++] = row;
+    }
+
+    /**
+     * Return the backing array of the store. Note that this array is
+     * replaced whenever the store grows, so it should not be held onto
+     * across calls to {@link #allocateRow()}.
+     */
+    double[] values() {
+        return values;
+    }
+
+    /** Index into {@link #values()} of the first constant attribute of the
+     * row passed. */
+    int constantOffset(int row) {
+        return row * width;
+    }
+
+    /** Index into {@link #values()} of the first preference of the row
+     * passed. */
+    int preferenceOffset(int row) {
+        return row * width + numConstants;
+    }
+
+    /** Index into {@link #values()} of the first (raw) hobby of the row
+     * passed. */
+    int hobbyOffset(int row) {
+        return row * width + numConstants + numPreferences;
+    }
+
+    /** Index into {@link #values()} of the first normalized hobby of the
+     * row passed. (See {@link HobbyVector}.) */
+    int normalizedHobbyOffset(int row) {
+        return row * width + numConstants + numPreferences + numHobbies;
+    }
+
+    int getNumConstants() {
+        return numConstants;
+    }
+
+    int getNumPreferences() {
+        return numPreferences;
+    }
+
+    int getNumHobbies() {
+        return numHobbies;
+    }
+}
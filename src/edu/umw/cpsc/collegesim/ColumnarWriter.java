@@ -0,0 +1,368 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a table to an Apache Arrow IPC stream, as a compact, binary,
+ * column-oriented alternative to CSV for the simulation's large outputs.
+ * (See <code>-outputFormat columnar</code> in {@link Sim}, and
+ * <code>read.columnar()</code> in <code>shiny/columnar.R</code>, which
+ * reads these files back into a data frame.) Anything that reads Arrow
+ * streams -- R's and Python's arrow packages, for instance -- can read
+ * them.
+ * <p></p>
+ * Each column is one of these types:
+ * <ul>
+ * <li><code>INT</code>: 32-bit signed ints</li>
+ * <li><code>DOUBLE</code>: 64-bit doubles</li>
+ * <li><code>LOGICAL</code>: booleans</li>
+ * <li><code>FACTOR</code>: strings from a fixed set of levels, stored as
+ * one-byte codes into a dictionary of the level names (which becomes a
+ * factor in R.)</li>
+ * </ul>
+ * None of the values are ever null.
+ * <p></p>
+ * A new file gets the stream's schema, then one dictionary batch for each
+ * factor column, then record batches of {@link #BATCH_ROWS} rows (the last
+ * one, written when the file is closed, or when {@link #writeBatch()} is
+ * called, may be shorter.) So the batches depend only on the rows written,
+ * and a big table comes in a few big batches. Reopening an existing file
+ * appends more record batches to it, which is how the year-by-year outputs
+ * accumulate; for that reason the stream is never given an end-of-stream
+ * marker, which Arrow allows (the end of the file ends the stream.)
+ * <p></p>
+ * Rows are built up in memory with the <code>set</code> methods and {@link
+ * #endRow()}.
+ */
+class ColumnarWriter {
+
+    static final byte INT = 'i';
+    static final byte DOUBLE = 'd';
+    static final byte LOGICAL = 'l';
+    static final byte FACTOR = 'f';
+
+    /** The number of rows in each record batch but (perhaps) the last. */
+    static final int BATCH_ROWS = 1 << 16;
+
+    // Constants from Arrow's Schema.fbs and Message.fbs.
+    private static final short METADATA_V5 = 4;
+    private static final byte SCHEMA = 1;
+    private static final byte DICTIONARY_BATCH = 2;
+    private static final byte RECORD_BATCH = 3;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_FLOATING_POINT = 3;
+    private static final byte TYPE_UTF8 = 5;
+    private static final byte TYPE_BOOL = 6;
+    private static final short PRECISION_DOUBLE = 2;
+
+    private final byte[] types;
+    private final OutputStream out;
+
+    // The rows of the batch in progress, column by column. Only the array
+    // matching each column's type is used.
+    private final int[][] ints;
+    private final double[][] doubles;
+    private final byte[][] bytes;
+    private int numRows;
+    private int capacity = 1024;
+
+    // The body of the message being written.
+    private ByteBuffer body = ByteBuffer.allocate(8 * 1024)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Open the file passed (among the output files passed) for writing
+     * (appending, if it already exists) a table with the column names and
+     * types passed. For each factor column, levels gives the names of its
+     * levels (in code order); it may be null for other columns.
+     */
+    ColumnarWriter(OutputFiles files, String filename, String[] names,
+        byte[] types, String[][] levels) throws IOException {
+        this.types = types.clone();
+        boolean isNew = files.length(filename) == 0;
+        out = files.open(filename, true);
+        if (isNew) {
+            writeSchema(names, levels);
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == FACTOR) {
+                    writeDictionary(c, levels[c]);
+                }
+            }
+        }
+        int n = types.length;
+        ints = new int[n][];
+        doubles = new double[n][];
+        bytes = new byte[n][];
+        for (int c = 0; c < n; c++) {
+            if (types[c] == INT) {
+                ints[c] = new int[capacity];
+            } else if (types[c] == DOUBLE) {
+                doubles[c] = new double[capacity];
+            } else {
+                bytes[c] = new byte[capacity];
+            }
+        }
+    }
+
+    /** Set the int column passed, in the row in progress. */
+    void setInt(int column, int value) {
+        ints[column][numRows] = value;
+    }
+
+    /** Set the double column passed, in the row in progress. */
+    void setDouble(int column, double value) {
+        doubles[column][numRows] = value;
+    }
+
+    /** Set the logical column passed, in the row in progress. */
+    void setLogical(int column, boolean value) {
+        bytes[column][numRows] = (byte) (value ? 1 : 0);
+    }
+
+    /**
+     * Set the factor column passed, in the row in progress, to the level
+     * whose code (index in the column's levels) is passed.
+     */
+    void setLevel(int column, int code) {
+        bytes[column][numRows] = (byte) code;
+    }
+
+    /**
+     * Finish the row in progress, and start a new one (writing out a batch,
+     * if that made one.)
+     */
+    void endRow() throws IOException {
+        numRows++;
+        if (numRows == BATCH_ROWS) {
+            writeBatch();
+        } else if (numRows == capacity) {
+            capacity = Math.min(capacity * 2, BATCH_ROWS);
+            for (int c = 0; c < types.length; c++) {
+                if (ints[c] != null) {
+                    ints[c] = Arrays.copyOf(ints[c], capacity);
+                } else if (doubles[c] != null) {
+                    doubles[c] = Arrays.copyOf(doubles[c], capacity);
+                } else {
+                    bytes[c] = Arrays.copyOf(bytes[c], capacity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write out the rows finished so far (if there are any) as a batch,
+     * even if it isn't full. (Only for when everything so far must be in
+     * the file, as when a checkpoint is written; otherwise, leaving batches
+     * to fill up keeps them few and large.)
+     */
+    void writeBatch() throws IOException {
+        if (numRows == 0) {
+            return;
+        }
+        startBody(types.length * (8 * numRows + 8));
+        // Each column's validity buffer (empty, since nothing is null),
+        // then its values.
+        long[] buffers = new long[4 * types.length];
+        for (int c = 0; c < types.length; c++) {
+            int start = body.position();
+            buffers[4 * c] = start;
+            buffers[4 * c + 2] = start;
+            if (types[c] == INT) {
+                body.asIntBuffer().put(ints[c], 0, numRows);
+                body.position(start + 4 * numRows);
+            } else if (types[c] == DOUBLE) {
+                body.asDoubleBuffer().put(doubles[c], 0, numRows);
+                body.position(start + 8 * numRows);
+            } else if (types[c] == LOGICAL) {
+                for (int r = 0; r < numRows; r += 8) {
+                    int bits = 0;
+                    for (int b = 0; b < 8 && r + b < numRows; b++) {
+                        bits |= bytes[c][r + b] << b;
+                    }
+                    body.put((byte) bits);
+                }
+            } else {
+                body.put(bytes[c], 0, numRows);
+            }
+            buffers[4 * c + 3] = body.position() - start;
+            padBody();
+        }
+        FlatBufferBuilder b = new FlatBufferBuilder();
+        writeMessage(b, RECORD_BATCH,
+            recordBatch(b, numRows, types.length, buffers));
+        numRows = 0;
+    }
+
+    /** Write out any finished rows, and close the file. */
+    void close() throws IOException {
+        writeBatch();
+        out.close();
+    }
+
+    private void writeSchema(String[] names, String[][] levels)
+        throws IOException {
+        FlatBufferBuilder b = new FlatBufferBuilder();
+        int[] fields = new int[types.length];
+        for (int c = 0; c < types.length; c++) {
+            int name = b.createString(names[c]);
+            int type;
+            byte typeCode;
+            if (types[c] == INT) {
+                type = intType(b, 32);
+                typeCode = TYPE_INT;
+            } else if (types[c] == DOUBLE) {
+                b.startTable(1);
+                b.addShort(0, PRECISION_DOUBLE);
+                type = b.endTable();
+                typeCode = TYPE_FLOATING_POINT;
+            } else if (types[c] == LOGICAL) {
+                b.startTable(0);
+                type = b.endTable();
+                typeCode = TYPE_BOOL;
+            } else {
+                b.startTable(0);
+                type = b.endTable();
+                typeCode = TYPE_UTF8;
+            }
+            int dictionary = 0;
+            if (types[c] == FACTOR) {
+                int indexType = intType(b, 8);
+                b.startTable(2);
+                b.addLong(0, c);
+                b.addOffset(1, indexType);
+                dictionary = b.endTable();
+            }
+            b.startVector(4, 0, 4);
+            int children = b.endVector();
+            b.startTable(6);
+            b.addOffset(0, name);
+            b.addByte(2, typeCode);
+            b.addOffset(3, type);
+            if (dictionary != 0) {
+                b.addOffset(4, dictionary);
+            }
+            b.addOffset(5, children);
+            fields[c] = b.endTable();
+        }
+        b.startVector(4, fields.length, 4);
+        for (int c = fields.length - 1; c >= 0; c--) {
+            b.putOffset(fields[c]);
+        }
+        int vector = b.endVector();
+        b.startTable(2);
+        b.addOffset(1, vector);
+        int schema = b.endTable();
+        startBody(0);
+        writeMessage(b, SCHEMA, schema);
+    }
+
+    // Write the dictionary (whose id is the column number passed) giving
+    // the names of a factor column's levels.
+    private void writeDictionary(int id, String[] levels) throws IOException {
+        byte[][] utf8 = new byte[levels.length][];
+        int size = 0;
+        for (int l = 0; l < levels.length; l++) {
+            utf8[l] = levels[l].getBytes(StandardCharsets.UTF_8);
+            size += utf8[l].length;
+        }
+        startBody(4 * (levels.length + 1) + size + 16);
+        // Validity (empty), offsets into the data, and the data.
+        long[] buffers = new long[6];
+        body.putInt(0);
+        for (int l = 0; l < levels.length; l++) {
+            body.putInt(body.getInt(body.position() - 4) + utf8[l].length);
+        }
+        buffers[3] = body.position();
+        padBody();
+        buffers[4] = body.position();
+        for (int l = 0; l < levels.length; l++) {
+            body.put(utf8[l]);
+        }
+        buffers[5] = size;
+        padBody();
+        FlatBufferBuilder b = new FlatBufferBuilder();
+        int data = recordBatch(b, levels.length, 1, buffers);
+        b.startTable(2);
+        b.addLong(0, id);
+        b.addOffset(1, data);
+        writeMessage(b, DICTIONARY_BATCH, b.endTable());
+    }
+
+    private static int intType(FlatBufferBuilder b, int bitWidth) {
+        b.startTable(2);
+        b.addInt(0, bitWidth);
+        b.addBoolean(1, true);
+        return b.endTable();
+    }
+
+    // Build a RecordBatch table, for the number of rows passed, of the
+    // number of columns passed, none of them nested or with any nulls, from
+    // the (offset, length) pairs of their buffers in the body.
+    private static int recordBatch(FlatBufferBuilder b, int length,
+        int numColumns, long[] buffers) {
+        b.startVector(16, numColumns, 8);
+        for (int c = 0; c < numColumns; c++) {
+            b.putLong(0);
+            b.putLong(length);
+        }
+        int nodes = b.endVector();
+        b.startVector(16, buffers.length / 2, 8);
+        for (int i = buffers.length - 2; i >= 0; i -= 2) {
+            b.putLong(buffers[i + 1]);
+            b.putLong(buffers[i]);
+        }
+        int vector = b.endVector();
+        b.startTable(3);
+        b.addLong(0, length);
+        b.addOffset(1, nodes);
+        b.addOffset(2, vector);
+        return b.endTable();
+    }
+
+    // Empty the body, making sure it can hold the number of bytes passed.
+    private void startBody(int size) {
+        if (body.capacity() < size) {
+            body = ByteBuffer.allocate(Math.max(size, body.capacity() * 2))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        body.clear();
+    }
+
+    // Pad the body with zeros to a multiple of 8 bytes, as Arrow requires
+    // of each buffer.
+    private void padBody() {
+        while ((body.position() & 7) != 0) {
+            body.put((byte) 0);
+        }
+    }
+
+    // Write a message whose header is the table passed (of the type passed)
+    // in the builder passed, followed by the body, in one piece (so that a
+    // reader following the file as it grows is unlikely to see half of
+    // one): a continuation marker, the size of the metadata, the metadata
+    // padded to a multiple of 8 bytes, and the body.
+    private void writeMessage(FlatBufferBuilder b, byte headerType,
+        int header) throws IOException {
+        int bodyLength = body.position();
+        b.startTable(4);
+        b.addShort(0, METADATA_V5);
+        b.addByte(1, headerType);
+        b.addOffset(2, header);
+        b.addLong(3, bodyLength);
+        byte[] metadata = b.finish(b.endTable());
+        int padded = (metadata.length + 7) & ~7;
+        ByteBuffer message = ByteBuffer.allocate(8 + padded + bodyLength)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        message.putInt(-1);
+        message.putInt(padded);
+        message.put(metadata);
+        message.position(8 + padded);
+        message.put(body.array(), 0, bodyLength);
+        out.write(message.array());
+    }
+}
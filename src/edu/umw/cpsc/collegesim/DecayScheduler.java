@@ -0,0 +1,185 @@
+package edu.umw.cpsc.collegesim;
+
+import java.util.Arrays;
+
+import sim.engine.*;
+
+/**
+ * Keeps track of when every friendship in the simulation will decay, and
+ * decays them on time.
+ * <p></p>
+ * A friendship that has gone {@link Parameters#decayThreshold} months without
+ * being tickled comes to an end. Rather than have every student inspect
+ * every one of their friendships each month, this class files each
+ * friendship under the month in which it will expire (if not tickled again
+ * first), in a <i>timing wheel</i>: a ring of decayThreshold+1 buckets, one
+ * for each month from "now" to "decayThreshold months from now." Tickling a
+ * friendship just moves it to a later bucket, in O(1). Once a month, after
+ * all students have stepped, the scheduler empties the bucket for that
+ * month, so the cost of decay is proportional to the number of friendships
+ * that actually decay.
+ * <p></p>
+ * Friendships are identified by their edge handles in {@link
+ * Sim#peopleGraph}, and times are measured in whole months of simulation
+ * time.
+ */
+public class DecayScheduler implements Steppable {
+
+    private static final long serialVersionUID = 1;
+
+    private static final int NONE = -1;
+
+    // The simulation whose friendships these are.
+    private final Sim sim;
+
+    // The ring of buckets. Bucket (m % wheelSize) holds the friendships that
+    // expire in month m; each bucket is a doubly-linked list threaded through
+    // the next/prev arrays.
+    private final int threshold;
+    private final int wheelSize;
+    private final int[] bucketHeads;
+
+    // Per-handle information about each friendship.
+    private int[] lastTickled;
+    private int[] next;
+    private int[] prev;
+
+    private int size;
+
+    // Every month up to and including this one has been swept.
+    private int lastMonthSwept = Integer.MIN_VALUE;
+
+    DecayScheduler(Sim sim, int threshold) {
+        this.sim = sim;
+        this.threshold = threshold;
+        this.wheelSize = threshold + 1;
+        this.bucketHeads = new int[wheelSize];
+        Arrays.fill(bucketHeads, NONE);
+        int capacity = 1024;
+        lastTickled = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+    }
+
+    /**
+     * Return the whole month of simulation time the simulation is currently
+     * in.
+     */
+    int currentMonth() {
+        return (int) Math.floor(sim.schedule.getTime());
+    }
+
+    /**
+     * Begin tracking the new friendship whose handle in {@link
+     * Sim#peopleGraph} is passed, as of the month passed.
+     */
+    void add(int handle, int month) {
+        if (handle >= lastTickled.length) {
+            int capacity = Math.max(lastTickled.length * 2, handle + 1);
+            lastTickled = Arrays.copyOf(lastTickled, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+        }
+        lastTickled[handle] = month;
+        link(handle);
+        size++;
+    }
+
+    /**
+     * Refresh the friendship whose handle is passed, as of the month passed,
+     * postponing its expiration.
+     */
+    void tickle(int handle, int month) {
+        unlink(handle);
+        lastTickled[handle] = month;
+        link(handle);
+    }
+
+    /**
+     * Stop tracking the friendship whose handle is passed, without decaying
+     * it. (For instance, because one of the friends has left the
+     * university.) The caller is responsible for the edge itself.
+     */
+    void remove(int handle) {
+        unlink(handle);
+        size--;
+    }
+
+    /** Returns the number of friendships currently being tracked. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Decay every friendship that is due to expire in any month up to and
+     * including the month passed, and that has not been swept already.
+     */
+    void sweepThrough(int month) {
+        if (lastMonthSwept == Integer.MIN_VALUE) {
+            lastMonthSwept = month - wheelSize;
+        }
+        // (Nothing can be due more than a full turn of the wheel from now.)
+        int m = Math.max(lastMonthSwept + 1, month - wheelSize + 1);
+        for (; m <= month; m++) {
+            int bucket = Math.floorMod(m, wheelSize);
+            int handle = bucketHeads[bucket];
+            while (handle != NONE) {
+                int following = next[handle];
+                if (lastTickled[handle] + threshold <= month) {
+                    expire(handle);
+                }
+                handle = following;
+            }
+        }
+        lastMonthSwept = month;
+    }
+
+    private void expire(int handle) {
+        Person a = sim.peopleGraph.getFirst(handle);
+        Person b = sim.peopleGraph.getSecond(handle);
+        sim.encounterLog.log(sim.getCurrYearNum(), a, b,
+            EncounterLog.Type.DECAY);
+        a.forgetFriend(b);
+        b.forgetFriend(a);
+        remove(handle);
+        sim.peopleGraph.removeEdge(handle);
+    }
+
+    private void link(int handle) {
+        int bucket = Math.floorMod(lastTickled[handle] + threshold, wheelSize);
+        int head = bucketHeads[bucket];
+        prev[handle] = NONE;
+        next[handle] = head;
+        if (head != NONE) {
+            prev[head] = handle;
+        }
+        bucketHeads[bucket] = handle;
+    }
+
+    private void unlink(int handle) {
+        int p = prev[handle];
+        int n = next[handle];
+        if (p != NONE) {
+            next[p] = n;
+        } else {
+            int bucket =
+                Math.floorMod(lastTickled[handle] + threshold, wheelSize);
+            bucketHeads[bucket] = n;
+        }
+        if (n != NONE) {
+            prev[n] = p;
+        }
+    }
+
+    /**
+     * Decay this month's expiring friendships. This is stepped every month,
+     * just after all the Persons have stepped, but only does anything in
+     * academic months.
+     */
+    public void step(SimState state) {
+        if (!sim.isAcademicMonth()) {
+            return;
+        }
+        sweepThrough(currentMonth());
+    }
+}
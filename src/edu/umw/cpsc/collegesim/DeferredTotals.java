@@ -0,0 +1,109 @@
+package edu.umw.cpsc.collegesim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The changes that some groups, acting at the same time in a parallel month,
+ * have made to the running attribute totals of <i>other</i> groups (by
+ * influencing students who also belong to those groups), recorded rather
+ * than made, and then made all at once by {@link #apply()}. (See {@link
+ * GroupPhase}.)
+ * <p></p>
+ * The groups record into this one at a time, each after calling {@link
+ * #setActor}; changes to the acting group's own totals are made
+ * immediately. The changes to each other group are summed as they arrive,
+ * and applied in the order the groups were first changed, so the result
+ * depends only on the order the actors act in.
+ */
+class DeferredTotals {
+
+    // The group now recording.
+    private Group actor;
+
+    // Every group changed so far (in the order first changed), with its
+    // position in that list by id, and the sum of the changes to its
+    // preference and hobby totals.
+    private final ArrayList<Group> targets = new ArrayList<Group>();
+    private final IntIntHashMap positions = new IntIntHashMap();
+    private final ArrayList<double[]> preferenceDeltas =
+        new ArrayList<double[]>();
+    private final ArrayList<double[]> hobbyDeltas = new ArrayList<double[]>();
+
+    // The lengths of the groups' preference and hobby totals.
+    private final int numPreferences;
+    private final int numHobbies;
+
+    DeferredTotals(int numPreferences, int numHobbies) {
+        this.numPreferences = numPreferences;
+        this.numHobbies = numHobbies;
+    }
+
+    /** Record the changes to come as made by the group passed. */
+    void setActor(Group actor) {
+        this.actor = actor;
+    }
+
+    /**
+     * Tell the group passed (if it is the actor) or record for it (if not)
+     * that one of its members has changed the value of the preference
+     * passed by the amount passed. (See {@link
+     * Group#memberPreferenceChanged}.)
+     */
+    void memberPreferenceChanged(Group g, int index, double delta) {
+        if (g == actor) {
+            g.memberPreferenceChanged(index, delta);
+            return;
+        }
+        preferenceDeltas.get(position(g))[index] += delta;
+    }
+
+    /**
+     * Tell the group passed (if it is the actor) or record for it (if not)
+     * that one of its members has changed a hobby. (See {@link
+     * Group#memberHobbiesChanged}.)
+     */
+    void memberHobbiesChanged(Group g, HobbyVector hobbies, int index,
+        double indexDelta, double scale) {
+        if (g == actor) {
+            g.memberHobbiesChanged(hobbies, index, indexDelta, scale);
+            return;
+        }
+        double[] totals = hobbyDeltas.get(position(g));
+        for (int x = 0; x < totals.length; x++) {
+            if (x != index) {
+                totals[x] += hobbies.getRaw(x) * scale;
+            }
+        }
+        totals[index] += indexDelta;
+    }
+
+    /** Make every change recorded, and clear the record. */
+    void apply() {
+        for (int t = 0; t < targets.size(); t++) {
+            targets.get(t).addToTotals(preferenceDeltas.get(t),
+                hobbyDeltas.get(t));
+            Arrays.fill(preferenceDeltas.get(t), 0.0);
+            Arrays.fill(hobbyDeltas.get(t), 0.0);
+            positions.remove(targets.get(t).getID());
+        }
+        targets.clear();
+        actor = null;
+    }
+
+    // The position of the group passed in targets (adding it, if need be.)
+    private int position(Group g) {
+        int t = positions.get(g.getID());
+        if (t != IntIntHashMap.NONE) {
+            return t;
+        }
+        t = targets.size();
+        targets.add(g);
+        positions.put(g.getID(), t);
+        if (t == preferenceDeltas.size()) {
+            preferenceDeltas.add(new double[numPreferences]);
+            hobbyDeltas.add(new double[numHobbies]);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,116 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * The stream of encounter events (meetings, tickles, and decays) that makes
+ * up the <code>encounters<i>SIMTAG</i>.csv</code> (or <code>.col</code>)
+ * output file. (See {@link EventLog}.) At the SUMMARY level, it instead
+ * counts each year's encounters of each type for each pair of races, in
+ * <code>encounterSummary<i>SIMTAG</i>.csv</code>.
+ */
+class EncounterLog extends EventLog {
+
+    /** The kinds of encounter, with how each is written in the file. */
+    enum Type {
+        MEET_FRIENDS("meetFriends"),
+        MEET_NO_FRIENDS("meetNoFriends"),
+        TICKLE("tickle"),
+        DECAY("decay");
+
+        private final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    private static final String[] COLUMN_NAMES =
+        { "year", "id1", "id2", "type" };
+    private static final byte[] COLUMN_TYPES = { ColumnarWriter.INT,
+        ColumnarWriter.INT, ColumnarWriter.INT, ColumnarWriter.FACTOR };
+
+    // For the SUMMARY level: the year being tallied, and the number of
+    // encounters of each type, by race pair.
+    private int summaryYear;
+    private final long[][] counts = new long[MIXED + 1][TYPES.length];
+
+    EncounterLog(Level level, double tracerRate, OutputFiles files,
+        long simtag, boolean columnar, boolean append) throws IOException {
+        super(level, tracerRate, files, "encounters"+simtag, columnar,
+            "year,id1,id2,type", COLUMN_NAMES, COLUMN_TYPES,
+            new String[][] { null, null, null, labels() }, append);
+        openSummary("encounterSummary"+simtag+".csv",
+            "year,races,type,count");
+    }
+
+    private static String[] labels() {
+        String[] labels = new String[TYPES.length];
+        for (int i = 0; i < TYPES.length; i++) {
+            labels[i] = TYPES[i].toString();
+        }
+        return labels;
+    }
+
+    /**
+     * Record that, in the year passed, the two students passed had an
+     * encounter of the type passed.
+     */
+    void log(int year, Person p1, Person p2, Type type) {
+        if (summarizing()) {
+            if (year != summaryYear) {
+                writeSummary();
+                summaryYear = year;
+            }
+            counts[racePair(p1, p2)][type.ordinal()]++;
+            return;
+        }
+        if (!wants(p1.getID(), p2.getID())) {
+            return;
+        }
+        int slot = claim();
+        years[slot] = year;
+        firsts[slot] = p1.getID();
+        seconds[slot] = p2.getID();
+        kinds[slot] = (byte) type.ordinal();
+        publish();
+    }
+
+    void format(int slot, StringBuilder sb) {
+        sb.append(years[slot]).append(',').append(firsts[slot]).append(',')
+            .append(seconds[slot]).append(',').append(TYPES[kinds[slot]]);
+    }
+
+    void store(int slot, ColumnarWriter w) {
+        w.setInt(0, years[slot]);
+        w.setInt(1, firsts[slot]);
+        w.setInt(2, seconds[slot]);
+        w.setLevel(3, kinds[slot]);
+    }
+
+    void summarize(PrintWriter pw) {
+        long total = 0;
+        for (int r = 0; r < counts.length; r++) {
+            for (int t = 0; t < TYPES.length; t++) {
+                total += counts[r][t];
+            }
+        }
+        if (total == 0) {
+            return;
+        }
+        for (int r = 0; r < counts.length; r++) {
+            for (int t = 0; t < TYPES.length; t++) {
+                pw.println(summaryYear + "," + racePairLabel(r) + "," +
+                    TYPES[t] + "," + counts[r][t]);
+                counts[r][t] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stream of small, fixed-layout event records (encounters, similarity
+ * computations) that the simulation appends to and a background thread
+ * writes out to a CSV file (or, with <code>-outputFormat columnar</code>, a
+ * {@link ColumnarWriter} file.)
+ * <p></p>
+ * Records go into a preallocated ring buffer of {@link #CAPACITY} slots,
+ * stored column by column (a year, two ints, a small "kind" code, and a
+ * double per record; subclasses decide what they mean.) Appending a record
+ * is a few array stores, with no string building and no I/O on the
+ * simulation thread. The drain thread formats everything that has piled up
+ * since its last pass through a large buffered writer (or copies it into
+ * the columnar writer's batch in progress), and only then hands those slots
+ * back. If the simulation gets a whole ring ahead of the drain thread, it
+ * waits for it to catch up, so memory stays bounded no matter how fast
+ * events are produced. (Columnar batches are written as they fill up, and
+ * when flushing, never at the end of a pass, so they don't depend on how
+ * the drain thread's passes happen to fall.)
+ * <p></p>
+ * Each log has a {@link Level} that says which records to keep: all of them,
+ * only those involving one of a fixed, pseudo-random sample of "tracer"
+ * students, or none at all (in which case no file is written.) Or, instead
+ * of keeping records, a log can just tally them, and write a small table
+ * of per-year statistics to a separate summary file.
+ * <p></p>
+ * There must be only one thread appending to a given log. Call {@link
+ * #close()} at the end of the run to wait for every record to be written
+ * (or {@link #flush()} to wait without closing.)
+ */
+abstract class EventLog {
+
+    /** How much of a stream to log. */
+    enum Level {
+        /** Every record. */
+        FULL,
+        /** Only records involving at least one tracer student. (See {@link
+         * EventLog#isTracer(int)}.) */
+        TRACER,
+        /** Nothing; only per-year statistics, in a summary file. */
+        SUMMARY,
+        /** Nothing. */
+        NONE;
+
+        /**
+         * Returns the Level named (case-insensitively) by the string passed,
+         * or null if there is none.
+         */
+        static Level parse(String name) {
+            for (Level level : values()) {
+                if (level.name().equalsIgnoreCase(name)) {
+                    return level;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Codes for the pair of races of the two students in a record: their
+    // common race's ordinal, or MIXED if they differ.
+    static final Person.Race[] RACES = Person.Race.values();
+    static final byte MIXED = (byte) RACES.length;
+
+    /** The number of records the ring buffer can hold. (A power of 2.) */
+    static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+
+    // How long the drain thread naps when it finds nothing to do.
+    private static final long IDLE_NANOS = 1000000L;
+
+    // The columns of the ring buffer. Record number n lives in slot
+    // (n & MASK).
+    final int[] years;
+    final int[] firsts;
+    final int[] seconds;
+    final byte[] kinds;
+    final double[] values;
+
+    private final Level level;
+
+    // The (approximate) fraction of students who are tracers. (See
+    // isTracer().)
+    private final double tracerRate;
+
+    // Records numbered below head have been appended, and those below tail
+    // have been written out (so their slots can be reused.)
+    private volatile long head;
+    private volatile long tail;
+    private volatile boolean closing;
+
+    // Records numbered below flushed have been written and flushed to the
+    // file. Records numbered below flushRequested are waited for by flush().
+    private volatile long flushed;
+    private volatile long flushRequested;
+
+    // The appending thread, while it is parked waiting for the drain thread
+    // to make room or to flush (which unparks it whenever it has done
+    // either), or null.
+    private volatile Thread waiter;
+
+    // Where the files go, and whether to continue existing ones rather than
+    // start them over.
+    private final OutputFiles files;
+    private final boolean append;
+
+    // Exactly one of these is non-null (unless the level is NONE, in which
+    // case all three are null.)
+    private final Writer out;
+    private final ColumnarWriter columns;
+    private final Thread drainer;
+    private final StringBuilder line = new StringBuilder(64);
+
+    // Where summary statistics go, if the level is SUMMARY.
+    private PrintWriter summaryOut;
+
+    /**
+     * Start a log, at the level (and, for TRACER, the fraction of tracer
+     * students) passed, that writes to the file whose name (minus
+     * extension) is passed, among the output files passed. If columnar is false, this is a ".csv"
+     * file beginning with the header line passed; otherwise it is a ".col"
+     * file with the column names, types, and levels passed. (See {@link
+     * ColumnarWriter}.) If append is true, records are added to the end of
+     * the file (and of the summary file), if there already is one, as when a
+     * simulation is resumed from a checkpoint.
+     */
+    EventLog(Level level, double tracerRate, OutputFiles files,
+        String basename, boolean columnar, String header, String[] names,
+        byte[] types, String[][] levels, boolean append) throws IOException {
+        this.level = level;
+        this.tracerRate = tracerRate;
+        this.files = files;
+        this.append = append;
+        boolean recording = (level == Level.FULL || level == Level.TRACER);
+        int capacity = recording ? CAPACITY : 0;
+        years = new int[capacity];
+        firsts = new int[capacity];
+        seconds = new int[capacity];
+        kinds = new byte[capacity];
+        values = new double[capacity];
+        if (!recording) {
+            out = null;
+            columns = null;
+            drainer = null;
+            return;
+        }
+        String filename;
+        if (columnar) {
+            filename = basename + ".col";
+            out = null;
+            columns = new ColumnarWriter(files, filename, names, types,
+                levels);
+        } else {
+            filename = basename + ".csv";
+            boolean fresh = !append || files.length(filename) == 0;
+            out = new BufferedWriter(files.openWriter(filename, append),
+                1 << 16);
+            if (fresh) {
+                out.write(header);
+                out.write('\n');
+            }
+            columns = null;
+        }
+        drainer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "EventLog " + filename);
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * If this log's level is SUMMARY, start (or continue) the summary file
+     * with the name and CSV header line passed. (For subclasses'
+     * constructors.)
+     */
+    final void openSummary(String filename, String header)
+        throws IOException {
+        if (level == Level.SUMMARY) {
+            boolean fresh = !append || files.length(filename) == 0;
+            summaryOut = new PrintWriter(new BufferedWriter(
+                files.openWriter(filename, append)));
+            if (fresh) {
+                summaryOut.println(header);
+            }
+            summaryOut.flush();
+        }
+    }
+
+    /** Returns whether this log is tallying statistics, not records. */
+    final boolean summarizing() {
+        return summaryOut != null;
+    }
+
+    /**
+     * Write the statistics tallied since the last call to the summary file,
+     * and start over. Does nothing unless this log's level is SUMMARY.
+     */
+    final void writeSummary() {
+        if (summaryOut != null) {
+            summarize(summaryOut);
+            summaryOut.flush();
+        }
+    }
+
+    /**
+     * Write rows of the statistics tallied since the last call (if any) to
+     * the summary file passed, and reset them.
+     */
+    abstract void summarize(PrintWriter pw);
+
+    /**
+     * Returns the code for the pair of races of the two students passed.
+     * (See {@link #MIXED}.)
+     */
+    static byte racePair(Person p1, Person p2) {
+        return p1.getRace() == p2.getRace() ?
+            (byte) p1.getRace().ordinal() : MIXED;
+    }
+
+    /** Returns the name of the race pair code passed. */
+    static String racePairLabel(int code) {
+        return code == MIXED ? "MIXED" : RACES[code].toString();
+    }
+
+    /** Returns the names of all the race pair codes, in order. */
+    static String[] racePairLabels() {
+        String[] labels = new String[RACES.length + 1];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = racePairLabel(i);
+        }
+        return labels;
+    }
+
+    /**
+     * Returns whether a record involving the two students whose ids are
+     * passed should be logged.
+     */
+    final boolean wants(int id1, int id2) {
+        switch (level) {
+            case FULL:
+                return true;
+            case TRACER:
+                return isTracer(id1) || isTracer(id2);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether the student whose id is passed is one of the tracers:
+     * a sample of about {@link Parameters#tracerRate} of all students,
+     * chosen by hashing their ids (so the choice doesn't disturb the
+     * simulation's random number stream, and the same ids are tracers in
+     * every run.)
+     */
+    final boolean isTracer(int id) {
+        // The SplitMix64 finalizer, to turn consecutive ids into
+        // independent-looking uniform numbers.
+        long z = (id + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) / (double) (1L << 53) < tracerRate;
+    }
+
+    /**
+     * Returns the slot in which to store the next record, waiting for the
+     * drain thread to make room if the ring is full. Store the record's
+     * fields in that slot of the columns, then call {@link #publish()}.
+     */
+    final int claim() {
+        long h = head;
+        if (h - tail == CAPACITY) {
+            waiter = Thread.currentThread();
+            while (h - tail == CAPACITY) {
+                awaitDrainer();
+            }
+            waiter = null;
+        }
+        return (int) (h & MASK);
+    }
+
+    /** Make the record just stored in the claimed slot visible for
+     * writing. */
+    final void publish() {
+        head = head + 1;
+    }
+
+    /**
+     * Append the text of the record in the slot passed, without a trailing
+     * newline, to the StringBuilder passed.
+     */
+    abstract void format(int slot, StringBuilder sb);
+
+    /**
+     * Set the columns of the row in progress of the ColumnarWriter passed
+     * from the record in the slot passed.
+     */
+    abstract void store(int slot, ColumnarWriter w);
+
+    /**
+     * Wait until every record appended so far has been written to the file
+     * (and the summary file is up to date), without closing it. (This is
+     * how a checkpoint knows how much of the file belongs to it; see {@link
+     * Sim#fork}.)
+     */
+    void flush() {
+        if (summaryOut != null) {
+            summaryOut.flush();
+        }
+        if (drainer == null) {
+            return;
+        }
+        long h = head;
+        flushRequested = h;
+        if (flushed < h) {
+            waiter = Thread.currentThread();
+            while (flushed < h) {
+                awaitDrainer();
+            }
+            waiter = null;
+        }
+    }
+
+    // Wake the drain thread, and park (having set waiter) until it unparks
+    // us, so that the caller can check again whether it has done what the
+    // caller is waiting for. (The drain thread always unparks the waiter
+    // after it changes tail or flushed, so this can't miss a change made
+    // after the caller's check. It parks for only so long, in case the
+    // drain thread has died.)
+    private void awaitDrainer() {
+        if (!drainer.isAlive()) {
+            waiter = null;
+            throw new IllegalStateException(
+                "Event log writer has stopped: " + drainer.getName());
+        }
+        LockSupport.unpark(drainer);
+        LockSupport.parkNanos(this, IDLE_NANOS);
+    }
+
+    // Wake the appending thread, if it is waiting. (See awaitDrainer().)
+    private void wakeWaiter() {
+        Thread w = waiter;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    /**
+     * Wait until every record appended so far has been written, then close
+     * the file. (Calling this more than once does no harm.)
+     */
+    void close() {
+        if (summaryOut != null) {
+            writeSummary();
+            summaryOut.close();
+            summaryOut = null;
+        }
+        if (drainer == null) {
+            return;
+        }
+        closing = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                // Read closing before head, so that if we see it set we also
+                // see every record appended before it was.
+                boolean finished = closing;
+                long h = head;
+                long t = tail;
+                long requested = flushRequested;
+                if (t == h) {
+                    if (finished) {
+                        break;
+                    }
+                    if (out != null) {
+                        out.flush();
+                        flushed = h;
+                        wakeWaiter();
+                    } else if (flushed < requested && requested <= h) {
+                        // (A short batch, but only when asked for, and only
+                        // once it has everything flush() is waiting for.)
+                        columns.writeBatch();
+                        flushed = h;
+                        wakeWaiter();
+                    }
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                    continue;
+                }
+                if (columns != null) {
+                    for (; t < h; t++) {
+                        store((int) (t & MASK), columns);
+                        columns.endRow();
+                    }
+                } else {
+                    for (; t < h; t++) {
+                        line.setLength(0);
+                        format((int) (t & MASK), line);
+                        line.append('\n');
+                        out.append(line);
+                    }
+                }
+                tail = h;
+                wakeWaiter();
+            }
+            if (columns != null) {
+                columns.close();
+            } else {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package edu.umw.cpsc.collegesim;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds one FlatBuffers-encoded object tree: just enough of the FlatBuffers
+ * library's builder for {@link ColumnarWriter} to write the metadata of an
+ * Arrow stream, which is made of them.
+ * <p></p>
+ * As in the library, the buffer is filled from the back: each string,
+ * vector, and table must be finished before anything that refers to it is
+ * started, and so ends up after it in the buffer, which is what lets every
+ * reference be an unsigned, forward offset. Objects are identified by their
+ * positions as returned by the methods that finish them (distances from the
+ * end of the buffer, which stay the same as it grows.) Every value is
+ * little-endian and aligned to its size.
+ * <p></p>
+ * A table is built by {@link #startTable(int)}, then an <code>add</code>
+ * method for each field that isn't left out (in any order, and with nothing
+ * else built in between), then {@link #endTable()}. A vector is built by
+ * {@link #startVector(int, int, int)}, then a <code>put</code> for each
+ * element, <i>last element first</i>, then {@link #endVector()}.
+ */
+class FlatBufferBuilder {
+
+    // The buffer, whose last "used" bytes are what has been built so far.
+    private byte[] buf = new byte[1024];
+    private int used;
+
+    // The largest alignment anything in the buffer needs.
+    private int minAlign = 1;
+
+    // The table in progress: its position before its first field, and
+    // the position of each field added (by id), or 0 if it has not been.
+    private int tableStart;
+    private int[] fields = new int[8];
+    private int numFields;
+
+    // The number of elements in the vector in progress.
+    private int vectorLength;
+
+    /** Build a string, and return its position. */
+    int createString(String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        prep(4, utf8.length + 1);
+        putByte((byte) 0);
+        System.arraycopy(utf8, 0, buf, reserve(utf8.length), utf8.length);
+        putInt(utf8.length);
+        return used;
+    }
+
+    /**
+     * Start a table, with room for fields with ids up to (but not including)
+     * the number passed.
+     */
+    void startTable(int numFields) {
+        if (fields.length < numFields) {
+            fields = new int[numFields];
+        }
+        Arrays.fill(fields, 0, numFields, 0);
+        this.numFields = numFields;
+        tableStart = used;
+    }
+
+    void addByte(int field, byte value) {
+        prep(1, 0);
+        putByte(value);
+        fields[field] = used;
+    }
+
+    void addBoolean(int field, boolean value) {
+        addByte(field, (byte) (value ? 1 : 0));
+    }
+
+    void addShort(int field, short value) {
+        prep(2, 0);
+        putShort(value);
+        fields[field] = used;
+    }
+
+    void addInt(int field, int value) {
+        prep(4, 0);
+        putInt(value);
+        fields[field] = used;
+    }
+
+    void addLong(int field, long value) {
+        prep(8, 0);
+        putLong(value);
+        fields[field] = used;
+    }
+
+    /** Add a field referring to the object at the position passed. */
+    void addOffset(int field, int position) {
+        putOffset(position);
+        fields[field] = used;
+    }
+
+    /** Finish the table in progress, and return its position. */
+    int endTable() {
+        prep(4, 0);
+        putInt(0);
+        int table = used;
+        int last = numFields;
+        while (last > 0 && fields[last - 1] == 0) {
+            last--;
+        }
+        // The vtable: its size, the table's size, and where in the table
+        // each field is, or 0 if it was left out.
+        for (int f = last - 1; f >= 0; f--) {
+            putShort((short) (fields[f] == 0 ? 0 : table - fields[f]));
+        }
+        putShort((short) (table - tableStart));
+        putShort((short) (2 * (last + 2)));
+        // The table starts with how far back from it its vtable is.
+        int at = buf.length - table;
+        int distance = used - table;
+        buf[at] = (byte) distance;
+        buf[at + 1] = (byte) (distance >> 8);
+        buf[at + 2] = (byte) (distance >> 16);
+        buf[at + 3] = (byte) (distance >> 24);
+        return table;
+    }
+
+    /**
+     * Start a vector of the number of elements passed, each of the size
+     * (and needing the alignment) passed.
+     */
+    void startVector(int elementSize, int length, int align) {
+        prep(4, elementSize * length);
+        prep(align, elementSize * length);
+        vectorLength = length;
+    }
+
+    /** Finish the vector in progress, and return its position. */
+    int endVector() {
+        putInt(vectorLength);
+        return used;
+    }
+
+    /**
+     * Put an offset to the object at the position passed (as an element of
+     * a vector.)
+     */
+    void putOffset(int position) {
+        prep(4, 0);
+        putInt(used + 4 - position);
+    }
+
+    /** Put a long (as a field of a struct in a vector.) */
+    void putLong(long value) {
+        int at = reserve(8);
+        for (int i = 0; i < 8; i++) {
+            buf[at + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    /**
+     * Finish the buffer with the table at the position passed as its root,
+     * and return it.
+     */
+    byte[] finish(int root) {
+        prep(minAlign, 4);
+        putOffset(root);
+        return Arrays.copyOfRange(buf, buf.length - used, buf.length);
+    }
+
+    private void putByte(byte value) {
+        buf[reserve(1)] = value;
+    }
+
+    private void putShort(short value) {
+        int at = reserve(2);
+        buf[at] = (byte) value;
+        buf[at + 1] = (byte) (value >> 8);
+    }
+
+    private void putInt(int value) {
+        int at = reserve(4);
+        buf[at] = (byte) value;
+        buf[at + 1] = (byte) (value >> 8);
+        buf[at + 2] = (byte) (value >> 16);
+        buf[at + 3] = (byte) (value >> 24);
+    }
+
+    // Pad with zeros so that, once the number of bytes passed are added,
+    // the position will be a multiple of the alignment passed.
+    private void prep(int align, int size) {
+        if (align > minAlign) {
+            minAlign = align;
+        }
+        int padding = -(used + size) & (align - 1);
+        int at = reserve(padding);
+        Arrays.fill(buf, at, at + padding, (byte) 0);
+    }
+
+    // Make room for the number of bytes passed in front of what has been
+    // built, and return the index in buf at which they start.
+    private int reserve(int size) {
+        if (used + size > buf.length) {
+            int capacity = buf.length;
+            while (used + size > capacity) {
+                capacity *= 2;
+            }
+            byte[] grown = new byte[capacity];
+            System.arraycopy(buf, buf.length - used, grown, capacity - used,
+                used);
+            buf = grown;
+        }
+        used += size;
+        return buf.length - used;
+    }
+}
@@ -0,0 +1,169 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The undirected graph of friendships among the students currently in the
+ * simulation.
+ * <p></p>
+ * Students are nodes, indexed by their (dense, recycled) row in {@link
+ * Sim#attributes}. Each friendship is an edge, identified by a small integer
+ * <b>handle</b>; for each edge the graph stores only the two endpoints and
+ * the edge's position in each endpoint's adjacency array, so a friendship
+ * costs a handful of ints rather than an Edge object plus entries in
+ * separate in- and out-bags. Adding an edge, removing one given its handle
+ * (by swapping the last entry of each adjacency array into its place), and
+ * asking for a student's number of friends are all O(1).
+ * <p></p>
+ * Handles of removed edges are reused, so anyone else who keeps information
+ * by handle (like {@link DecayScheduler}) must forget a handle once its edge
+ * is removed.
+ */
+public class FriendshipGraph implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    private static final int[] NO_EDGES = new int[0];
+
+    // Per-node information, indexed by row.
+    private Person[] nodes = new Person[1024];
+    private int[][] adjacency = new int[1024][];
+    private int[] degree = new int[1024];
+
+    // Per-edge information, indexed by handle: the rows of the two
+    // endpoints, and the index of this edge in each endpoint's adjacency.
+    private int[] endA = new int[1024];
+    private int[] endB = new int[1024];
+    private int[] posA = new int[1024];
+    private int[] posB = new int[1024];
+
+    private int numHandlesUsed;
+    private int[] freeHandles = new int[16];
+    private int numFreeHandles;
+
+    /** Add the student passed to the graph, with no friends. */
+    void addNode(Person p) {
+        int r = p.getRow();
+        if (r >= nodes.length) {
+            int capacity = Math.max(nodes.length * 2, r + 1);
+            nodes = Arrays.copyOf(nodes, capacity);
+            adjacency = Arrays.copyOf(adjacency, capacity);
+            degree = Arrays.copyOf(degree, capacity);
+        }
+        nodes[r] = p;
+        adjacency[r] = NO_EDGES;
+        degree[r] = 0;
+    }
+
+    /**
+     * Remove the student passed from the graph. Any friendships they still
+     * have are removed as well.
+     */
+    void removeNode(Person p) {
+        int r = p.getRow();
+        while (degree[r] > 0) {
+            removeEdge(adjacency[r][degree[r] - 1]);
+        }
+        nodes[r] = null;
+        adjacency[r] = null;
+    }
+
+    /**
+     * Make the two students passed friends, returning the handle of the new
+     * edge. (The caller must ensure they are not friends already.)
+     */
+    int addEdge(Person a, Person b) {
+        int handle;
+        if (numFreeHandles > 0) {
+            handle = freeHandles[--numFreeHandles];
+        } else {
+            if (numHandlesUsed == endA.length) {
+                int capacity = endA.length * 2;
+                endA = Arrays.copyOf(endA, capacity);
+                endB = Arrays.copyOf(endB, capacity);
+                posA = Arrays.copyOf(posA, capacity);
+                posB = Arrays.copyOf(posB, capacity);
+            }
+            handle = numHandlesUsed++;
+        }
+        int ra = a.getRow();
+        int rb = b.getRow();
+        endA[handle] = ra;
+        endB[handle] = rb;
+        posA[handle] = append(ra, handle);
+        posB[handle] = append(rb, handle);
+        return handle;
+    }
+
+    /** Remove the friendship whose handle is passed. */
+    void removeEdge(int handle) {
+        detach(endA[handle], posA[handle]);
+        detach(endB[handle], posB[handle]);
+        if (numFreeHandles == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, numFreeHandles * 2);
+        }
+        freeHandles[numFreeHandles++] = handle;
+    }
+
+    /** Returns one end of the edge passed: the student who initiated it. */
+    Person getFirst(int handle) {
+        return nodes[endA[handle]];
+    }
+
+    /** Returns the other end of the edge passed. */
+    Person getSecond(int handle) {
+        return nodes[endB[handle]];
+    }
+
+    /** Returns how many friends the student passed has. */
+    public int getDegree(Person p) {
+        return degree[p.getRow()];
+    }
+
+    /**
+     * Returns the handle of the i<sup>th</sup> friendship of the student
+     * passed, for i from 0 to {@link #getDegree(Person)}-1. (The order is
+     * arbitrary, and changes as friendships are removed.)
+     */
+    int getEdge(Person p, int i) {
+        return adjacency[p.getRow()][i];
+    }
+
+    /**
+     * Returns the i<sup>th</sup> friend of the student passed, for i from 0
+     * to {@link #getDegree(Person)}-1.
+     */
+    public Person getFriend(Person p, int i) {
+        int r = p.getRow();
+        int handle = adjacency[r][i];
+        return nodes[endA[handle] == r ? endB[handle] : endA[handle]];
+    }
+
+    // Put the edge passed at the end of the adjacency array of the row
+    // passed, returning its position there.
+    private int append(int r, int handle) {
+        int d = degree[r];
+        if (d == adjacency[r].length) {
+            adjacency[r] = Arrays.copyOf(adjacency[r], Math.max(4, d * 2));
+        }
+        adjacency[r][d] = handle;
+        degree[r] = d + 1;
+        return d;
+    }
+
+    // Remove the entry at position pos of the adjacency array of the row
+    // passed, by moving the last entry into its place.
+    private void detach(int r, int pos) {
+        int last = --degree[r];
+        if (pos != last) {
+            int moved = adjacency[r][last];
+            adjacency[r][pos] = moved;
+            if (endA[moved] == r) {
+                posA[moved] = pos;
+            } else {
+                posB[moved] = pos;
+            }
+        }
+    }
+}
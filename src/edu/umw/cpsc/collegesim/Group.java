@@ -1,8 +1,11 @@
 package edu.umw.cpsc.collegesim;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import ec.util.*;
 import sim.engine.*;
 import sim.util.Bag;
@@ -16,20 +19,22 @@ import sim.util.Bag;
  * <ul>
  * <li>Upon creation, populates with random students.</li>
  * <li>Every month, influences each of its members, using {@link
- * #LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE}, among other things. Each
+ * Parameters#groupDriftRate}, among other things. Each
  * student can have any of his/her attributes drift some amount towards the
  * mean of that attribute for other students in that group, or not.</li>
  * <li>Every month, randomly selects students to <b>recruit</b> to the group.
  * Students who are already members are simply ignored. Those who are not will
  * join with a probability related to their <b>affinity</b> to the group.</li>
  * <li>Every month, allow students to leave the group. This depends on {@link
- * #LIKELIHOOD_OF_RANDOMLY_LEAVING_GROUP}, but will also not allow the group
+ * Parameters#likelihoodOfLeavingGroup}, but will also not allow the group
  * size to drift below the {@link #MINIMUM_GROUP_SIZE}. <i>(but Morgan doesn't
  * like this)</i></li>
  * </ul>
  */
 public class Group implements Steppable{
 
+    private static final long serialVersionUID = 1;
+
     /**
      * The lower bound on the size of a group at any point during its
      * lifespan. */
@@ -43,30 +48,6 @@ public class Group implements Steppable{
     /**
      * The upper bound on the size of a newly created group. */
     public static final int MAXIMUM_START_GROUP_SIZE = 8; 
-  
-    /**
-     * A threshold that determines the likelihood of whether a student will 
-     * join a group. Higher numbers means less acceptance into groups. The
-     * number itself is difficult to interpret, since a complex conflagration
-     * of factors will be put together to compare to it. */
-    public static double RECRUITMENT_REQUIRED;
-  
-    /**
-     * Each time step, the probability that each student will leave each of
-     * their groups, provided that leaving said group would not push the
-     * group size below the minimum. */
-    public static double LIKELIHOOD_OF_RANDOMLY_LEAVING_GROUP;
-  
-    /** Each time step, the probability that a student will change one of
-     * their attribute values <i>provided</i> that said attribute is "different
-     * enough" from their influencing peers to warrant change. */
-    public static double LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE;
-  
-    /** Each time a student changes one of her attribute values in response to
-     * a group (see {@link #LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE}), the
-     * fraction towards the group's mean value for that attribute that student
-     * will drift. */
-    public static double DRIFT_DISTANCE;
 
     /**
      * Each time step, the number of students who will be "invited" to a
@@ -75,39 +56,59 @@ public class Group implements Steppable{
      */
     public static final int NUM_PEOPLE_TO_RECRUIT = 10;
 
-    /**
-     * The number of forced-mixed-race orientation groups to start with.
-     */
-    public static int INITIAL_NUM_MIXED_RACE_GROUPS;
+    // The simulation this group belongs to, and its settings.
+    private final Sim sim;
+    private final Parameters params;
 
-    /**
-     * For the forced-mixed-race orientation groups, what fraction should be
-     * composed of minorities?
-     */
-    public static double MIXED_RACE_GROUP_FRACTION;
-
-    // Hand out consecutive unique numbers to new groups.
-    private static int nextGroupId = 0;
+    // This group's unique number (handed out consecutively by the Sim.)
     private int id;
 
+    // This group's own stream of random numbers. (See AgentRandom.)
+    private AgentRandom random;
+
     private boolean isFixed;  // more elegant with inheritance, but oh well
 
     // A number in the range 0 to 1 indicating how aggressive the group is
     // in attracting members.
     private double recruitmentFactor;
   
-    private ArrayList<Person> students;
+    // (Saved in checkpoints by the Sim, not with the rest of the Group; see
+    // writeStudents().)
+    private transient ArrayList<Person> students;
+
+    // Each member's position in students, by id, so that membership tests
+    // and removals don't have to scan the whole list. (Removal moves the
+    // last member into the vacated position.)
+    private IntIntHashMap studentPositions;
+
+    // The number of current members of each race, by Race ordinal.
+    private int[] raceCounts;
+
+    // Running totals, over all current members, of each preference and each
+    // (normalized) hobby. Kept up to date as members come and go and as
+    // their attributes change, so that the group's mean attribute values are
+    // always available without a pass over the membership.
+    private double[] preferenceTotals;
+    private double[] hobbyTotals;
     
     private void init() {
-      this.id = nextGroupId++;
+      this.id = sim.nextGroupId();
+      random = AgentRandom.forAgent(sim.seed(), AgentRandom.GROUP, id);
       students = new ArrayList<Person>();
-      recruitmentFactor = Sim.instance().random.nextDouble();
+      studentPositions = new IntIntHashMap();
+      raceCounts = new int[Person.Race.values().length];
+      preferenceTotals = new double[params.preferencePoolSize];
+      hobbyTotals = new double[params.hobbyPoolSize];
+      recruitmentFactor = random.nextDouble();
     }
 
     /**
-     * Constructs a new Group object and pre-populate it with members. 
+     * Constructs a new Group object in the simulation passed, and
+     * pre-populate it with members. 
      */
-    public Group() {
+    public Group(Sim sim) {
+        this.sim = sim;
+        this.params = sim.params;
         init();
         isFixed = false;
         selectStartingStudents();
@@ -116,24 +117,27 @@ public class Group implements Steppable{
     /**
      * Constructs a new "fixed Group" object (i.e., one whose population
      * does not change over time) and pre-populate it with members of
-     * (approximately) the fraction of minorities passed.
+     * (approximately) the fraction of minorities passed, in the simulation
+     * passed.
      */
-    public Group(double minorityFraction) {
+    public Group(Sim sim, double minorityFraction) {
+        this.sim = sim;
+        this.params = sim.params;
         init();
         isFixed = true;
         selectStartingStudents(minorityFraction);
     }
 
     private int generateInitialGroupSize() {
-        int initialGroupSize = Sim.instance().random.nextInt(
+        int initialGroupSize = random.nextInt(
             MAXIMUM_START_GROUP_SIZE-MINIMUM_START_GROUP_SIZE) + 
             MINIMUM_START_GROUP_SIZE + 1;
         if(initialGroupSize<MINIMUM_GROUP_SIZE){
           initialGroupSize=MINIMUM_GROUP_SIZE;    //keeps groups at least 
           // the min
         }
-        if(initialGroupSize>Sim.getNumPeople()){
-          initialGroupSize=Sim.getNumPeople();    //to ensure the initial 
+        if(initialGroupSize>sim.getNumPeople()){
+          initialGroupSize=sim.getNumPeople();    //to ensure the initial 
           // group size is never greater than the number of total people
         }
         return initialGroupSize;
@@ -144,15 +148,14 @@ public class Group implements Steppable{
     // common functionality.)
     private void selectStartingStudents() {
         int initialGroupSize = generateInitialGroupSize();
-        ArrayList<Person> people = Sim.getPeople();
+        Population people = sim.getPeople();
         Person randStudent;
         for(int x = 0; x < initialGroupSize; x++){
-          randStudent = people.get(Sim.instance().random.nextInt(people.size()));
+          randStudent = people.getRandom(random);
           while(groupContainsStudent(randStudent)){
-            randStudent = people.get(Sim.instance().random.nextInt(people.size()));
+            randStudent = people.getRandom(random);
           }
-          students.add(randStudent);
-          randStudent.joinGroup(this);
+          addStudent(randStudent);
         }
     }
 
@@ -165,41 +168,39 @@ public class Group implements Steppable{
             (int) Math.round(initialGroupSize * minorityFraction);
         int numWhites = (int) initialGroupSize - numMinorities;
 
-        ArrayList<Person> people = Sim.getPeople();
+        Population people = sim.getPeople();
         Person randStudent;
 
         for(int x = 0; x < numWhites; x++){
-          randStudent = people.get(Sim.instance().random.nextInt(people.size()));
+          randStudent = people.getRandom(random);
           while(randStudent.getRace() != Person.Race.WHITE  ||
             groupContainsStudent(randStudent)){
-            randStudent = people.get(Sim.instance().random.nextInt(people.size()));
+            randStudent = people.getRandom(random);
           }
-          students.add(randStudent);
-          randStudent.joinGroup(this);
+          addStudent(randStudent);
         }
         for(int x = 0; x < numMinorities; x++){
-          randStudent = people.get(Sim.instance().random.nextInt(people.size()));
+          randStudent = people.getRandom(random);
           while(randStudent.getRace() != Person.Race.MINORITY  ||
             groupContainsStudent(randStudent)){
-            randStudent = people.get(Sim.instance().random.nextInt(people.size()));
+            randStudent = people.getRandom(random);
           }
-          students.add(randStudent);
-          randStudent.joinGroup(this);
+          addStudent(randStudent);
         }
     }
 
-    private ArrayList<Person> findStudentsToRecruit(ArrayList<Person> people){
+    private ArrayList<Person> findStudentsToRecruit(Population people){
         int numPeople = NUM_PEOPLE_TO_RECRUIT;
         ArrayList<Person> recruits = new ArrayList<Person>();
         Person randStudent;
-        if(numPeople>Sim.getNumPeople()){
-          numPeople=Sim.getNumPeople();    //to ensure the initial group size 
+        if(numPeople>sim.getNumPeople()){
+          numPeople=sim.getNumPeople();    //to ensure the initial group size 
           // is never greater than the number of total people
         }
         for(int x = 0; x < numPeople; x++){
-          randStudent = people.get(Sim.instance().random.nextInt(people.size()));
+          randStudent = people.getRandom(random);
           while(groupContainsStudent(randStudent)){
-            randStudent = people.get(Sim.instance().random.nextInt(people.size()));
+            randStudent = people.getRandom(random);
           }
           recruits.add(randStudent);
         }
@@ -211,22 +212,25 @@ public class Group implements Steppable{
 
           //FIX FOR DECIMALS
             double r = (affinityTo(s) + recruitmentFactor + 
-                s.getExtroversion()*2 + Sim.instance().random.nextDouble()*2)/6.0; 
+                s.getExtroversion()*2 + random.nextDouble()*2)/6.0; 
                 //want to mess with balance here
-            if(r>RECRUITMENT_REQUIRED){
-                students.add(s);
-                s.joinGroup(this);
+            if(r>params.recruitmentRequired){
+                addStudent(s);
             }
         }
     }
   
-    private boolean groupContainsStudent(Person p){
-        for (int x = 0; x<students.size(); x++){
-          if (p.getID()==students.get(x).getID()){
-            return true;
-          }
-        }
-        return false;
+    void addStudent(Person s){
+        studentPositions.put(s.getID(), students.size());
+        students.add(s);
+        raceCounts[s.getRace().ordinal()]++;
+        s.joinGroup(this);
+        s.addPreferencesTo(preferenceTotals);
+        s.addHobbiesTo(hobbyTotals);
+    }
+
+    boolean groupContainsStudent(Person p){
+        return studentPositions.containsKey(p.getID());
     }
   
 
@@ -250,27 +254,23 @@ public class Group implements Steppable{
          }
      }
 
-   	private void influenceMembers( ){
+   	// Move each member's attributes some way towards the group's means.
+   	// Changes to the totals of the members' other groups go through the
+   	// DeferredTotals passed, if it isn't null. (See GroupPhase.)
+   	void influenceMembers(DeferredTotals deferred){
    	    //should we add something short for if n=1 or just let it go through
    	    //the loop even though that's kind of a waste
    	    int n = students.size( );
    	    if(n > 0){
-   	    	ArrayList<Double> preferenceAverage = new ArrayList<Double>();
-   	    	ArrayList<Double> hobbyAverage = new ArrayList<Double>();
-   	    	double tempTotal;
-   	    	for (int x = 0; x < students.get(0).getPreferences( ).size( ); x++){    
-   	    		tempTotal=0;
-   	    		for (int y = 0; y < n; y++){
-   	    			tempTotal+=students.get(y).getPreferences( ).get(x);
-   	    		}
-   	    		preferenceAverage.add(tempTotal/n);
+   	    	//Take a snapshot of the group's current averages, since the
+   	    	//running totals will move as we influence members below
+   	    	double[] preferenceAverage = new double[preferenceTotals.length];
+   	    	double[] hobbyAverage = new double[hobbyTotals.length];
+   	    	for (int x = 0; x < preferenceAverage.length; x++){
+   	    		preferenceAverage[x] = preferenceTotals[x]/n;
    	    	}
-   	    	for (int x = 0; x < students.get(0).getHobbies( ).size( ); x++){
-   	    		tempTotal=0;
-   	    		for (int y = 0; y < n; y++){
-   	    			tempTotal+=students.get(y).getHobbies().get(x);
-   	    		}
-   	    		hobbyAverage.add(tempTotal/n);
+   	    	for (int x = 0; x < hobbyAverage.length; x++){
+   	    		hobbyAverage[x] = hobbyTotals[x]/n;
    	    	}
 
         //At this point, both preferenceAverage and hobbyAverage are filled.
@@ -288,24 +288,24 @@ public class Group implements Steppable{
         // hobby and group's average value for that hobby
    	    	double increment; //how much each attribute will increment by
    	    	for(int x = 0; x < n; x++){
-   	    		for (int y = 0; y < preferenceAverage.size( ); y++){
-   	    			distanceP = preferenceAverage.get(y) - students.get(x).getPreferences().get(y);
-   	    			if(Sim.instance( ).random.nextDouble(true,true)< LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE){
-   	    				increment = (Sim.instance( ).random.nextDouble(true,true)*DRIFT_DISTANCE) * distanceP; 
+   	    		for (int y = 0; y < preferenceAverage.length; y++){
+   	    			distanceP = preferenceAverage[y] - students.get(x).getPreference(y);
+   	    			if(random.nextDouble(true,true)< params.groupDriftRate){
+   	    				increment = (random.nextDouble(true,true)*params.groupDriftDistance) * distanceP; 
                     //random number inclusively from 0-1, then divide by 5,
                     //then multiply by the distance that attribute is from
                     //the group's average
-   	    				students.get(x).setPreferenceValue(y, (students.get(x).getPreferences().get(y)) +
-   	    						increment);
+   	    				students.get(x).setPreferenceValue(y, (students.get(x).getPreference(y)) +
+   	    						increment, deferred);
    	    			}
    	    		}
    	    		
-   	    		for(int y = 0; y < hobbyAverage.size( ); y++){
-   	    			distanceH = hobbyAverage.get(y) - students.get(x).getHobbies().get(y);
-   	    			if(Sim.instance().random.nextDouble(true,true) < LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE){  
-   	    				increment = (Sim.instance( ).random.nextDouble(true, true)*DRIFT_DISTANCE)*distanceH;
-   	    				students.get(x).setHobbyValue(y,(students.get(x).getHobbies().get(y)) +
-   	    						increment);  //Morgan's method
+   	    		for(int y = 0; y < hobbyAverage.length; y++){
+   	    			distanceH = hobbyAverage[y] - students.get(x).getHobby(y);
+   	    			if(random.nextDouble(true,true) < params.groupDriftRate){  
+   	    				increment = (random.nextDouble(true, true)*params.groupDriftDistance)*distanceH;
+   	    				students.get(x).setHobbyValue(y,(students.get(x).getHobby(y)) +
+   	    						increment, deferred);  //Morgan's method
    	    			}
    	    		}
    	    	}
@@ -313,11 +313,10 @@ public class Group implements Steppable{
     }
 
      private void possiblyLeaveGroup(Person p){
-      if(Sim.instance().random.nextDouble(true,true)<
-            LIKELIHOOD_OF_RANDOMLY_LEAVING_GROUP && 
+      if(random.nextDouble(true,true)<
+            params.likelihoodOfLeavingGroup && 
             students.size()>MINIMUM_GROUP_SIZE){
         p.leaveGroup(this);
-        removeStudent(p);
       }
     }
 
@@ -330,40 +329,57 @@ public class Group implements Steppable{
      * <li>Recruit other students from the student body at large.</li>
      * <li>Give each member a chance to leave the group.</li>
      * </ol>
-     * After this, the Group reschedules itself for the next month (or
-     * August, if it's coming up on summertime.)
-     * <p>Note that Groups only step during academic months.</p>
+     * <p>Note that Groups only step during academic months, when the {@link
+     * GroupPhase} steps them.</p>
      */
       public void step(SimState state){
-        System.out.println("#### " + (isFixed ? "FIXED " : "") + "GROUP " + 
-            id + " (" + state.schedule.getTime() + ") (with " +
-            students.size() + " members)");
-        influenceMembers();
+        if(Log.enabled(Log.TRACE)){
+            Log.trace("#### " + (isFixed ? "FIXED " : "") + "GROUP " + 
+                id + " (" + state.schedule.getTime() + ") (with " +
+                students.size() + " members)");
+        }
+        act(null, null);
+    }
+  
+  
+    /**
+     * Perform this month's actions (see {@link #step(SimState)}). The
+     * students to recruit may be passed (see {@link #chooseRecruits()}); if
+     * null, they are chosen after influencing the members. If deferred isn't
+     * null, changes to other groups' totals are recorded there instead of
+     * made. (See {@link GroupPhase}.)
+     */
+    void act(ArrayList<Person> recruits, DeferredTotals deferred){
+        influenceMembers(deferred);
         if (!isFixed) {
-            ArrayList<Person> recruits = 
-                findStudentsToRecruit(Sim.getPeople());
+            if (recruits == null) {
+                recruits = findStudentsToRecruit(sim.getPeople());
+            }
             for(int x = 0; x < recruits.size(); x++){
               recruitStudent(recruits.get(x));
             }
-            for(int x = 0; x<students.size(); x++){
+            // (Backwards, since a departure moves the last member into the
+            // departing member's position.)
+            for(int x = students.size()-1; x >= 0; x--){
               possiblyLeaveGroup(students.get(x));
             }
         }
-        
-        if (Sim.instance().nextMonthInAcademicYear()) {
-          // It's not the end of the academic year yet. Run again
-          // next month.
-          Sim.instance( ).schedule.scheduleOnceIn(1, this);
-        } else {
-            if (!Sim.instance().isLastYearOfSim()) {
-              // It's summer break! Sleep for the summer.
-              Sim.instance( ).schedule.scheduleOnceIn(
-                  Sim.NUM_MONTHS_IN_SUMMER + 1, this);
-            }
+    }
+
+    /**
+     * Choose, ahead of time, the students this group will try to recruit
+     * when it next acts (none, for a fixed group.) Since only this group
+     * ever changes its own membership, these are the same students it would
+     * choose in {@link #act(ArrayList, DeferredTotals)}. (See {@link
+     * GroupPhase}.)
+     */
+    ArrayList<Person> chooseRecruits(){
+        if (isFixed) {
+            return new ArrayList<Person>();
         }
+        return findStudentsToRecruit(sim.getPeople());
     }
-  
-  
+
     /** Sets the recruitment factor for this group, which is a number in the
      * range 0 to 1 indicating how aggressive the group is in attracting
      * members. Higher numbers increase the likelihood of {@link
@@ -383,21 +399,36 @@ public class Group implements Steppable{
      * group.
      */
     public int getSize(Person.Race race){
-        int num=0;
-        for (int i=0; i<students.size(); i++) {
-            if (students.get(i).getRace() == race) {
-                num++;
-            }
-        }
-        return num;
+        return raceCounts[race.ordinal()];
     }
 
     public static void printHeaderToGroupsFile(PrintWriter pw) {
         pw.println("year,id,numMin,numWhi");
     }
 
+    /**
+     * Open (or continue) a columnar file of the same information {@link
+     * #printToFile(PrintWriter)} writes. (See {@link ColumnarWriter}.)
+     */
+    static ColumnarWriter openColumnarGroupsFile(OutputFiles files,
+        String filename) throws IOException {
+        return new ColumnarWriter(files, filename,
+            new String[] { "year", "id", "numMin", "numWhi" },
+            new byte[] { ColumnarWriter.INT, ColumnarWriter.INT,
+                ColumnarWriter.INT, ColumnarWriter.INT },
+            new String[4][]);
+    }
+
+    void printToFile(ColumnarWriter w) throws IOException {
+        w.setInt(0, sim.getCurrYearNum());
+        w.setInt(1, id);
+        w.setInt(2, getSize(Person.Race.MINORITY));
+        w.setInt(3, getSize(Person.Race.WHITE));
+        w.endRow();
+    }
+
     public void printToFile(PrintWriter pw) {
-        pw.println(Sim.instance().getCurrYearNum() + "," + id + "," + 
+        pw.println(sim.getCurrYearNum() + "," + id + "," + 
             getSize(Person.Race.MINORITY) + "," + getSize(Person.Race.WHITE));
     }
 
@@ -410,9 +441,12 @@ public class Group implements Steppable{
     
 
     private void listMembers(){
-      System.out.println("The following students are in group " + id + ":");
+      if(!Log.enabled(Log.DEBUG)){
+        return;
+      }
+      Log.debug("The following students are in group " + id + ":");
       for(int x = 0; x < students.size(); x++){
-        System.out.println("\t" + students.get(x));
+        Log.debug("\t" + students.get(x));
       }
     }
   
@@ -431,19 +465,91 @@ public class Group implements Steppable{
     /** Removes the person passed from this group. If the person is not
      * already a member, does nothing. */
     public void removeStudent(Person p){
-      for(int x = 0; x<students.size(); x++){
-          if(students.get(x).getID( ) == p.getID( )){
-            students.remove(x);
-          }
+      int x = studentPositions.remove(p.getID());
+      if(x == IntIntHashMap.NONE){
+        return;
+      }
+      Person last = students.remove(students.size()-1);
+      if(x < students.size()){
+        students.set(x, last);
+        studentPositions.put(last.getID(), x);
+      }
+      raceCounts[p.getRace().ordinal()]--;
+      subtractFromTotals(p);
+    }
+
+    private void subtractFromTotals(Person p){
+      if(students.isEmpty()){
+        // Start over from exact zeroes, rather than carrying any rounding
+        // error forward to the next members.
+        Arrays.fill(preferenceTotals, 0.0);
+        Arrays.fill(hobbyTotals, 0.0);
+        return;
+      }
+      p.subtractPreferencesFrom(preferenceTotals);
+      p.subtractHobbiesFrom(hobbyTotals);
+    }
+
+    /**
+     * Informs this group that one of its members has changed the value of
+     * the preference passed by the amount passed. */
+    void memberPreferenceChanged(int index, double delta){
+      preferenceTotals[index] += delta;
+    }
+
+    /**
+     * Informs this group that one of its members has changed the hobby whose
+     * index is passed, thereby changing that hobby's normalized value by
+     * indexDelta, and (through normalization) every other hobby's normalized
+     * value by its raw value times scale. */
+    void memberHobbiesChanged(HobbyVector hobbies, int index,
+        double indexDelta, double scale){
+      for(int x = 0; x<hobbyTotals.length; x++){
+        if(x != index){
+          hobbyTotals[x] += hobbies.getRaw(x) * scale;
+        }
+      }
+      hobbyTotals[index] += indexDelta;
+    }
+
+    /**
+     * Add the arrays passed to this group's preference and hobby totals,
+     * element by element. (See {@link DeferredTotals}.) */
+    void addToTotals(double[] preferenceDeltas, double[] hobbyDeltas){
+      for(int x = 0; x<preferenceTotals.length; x++){
+        preferenceTotals[x] += preferenceDeltas[x];
+      }
+      for(int x = 0; x<hobbyTotals.length; x++){
+        hobbyTotals[x] += hobbyDeltas[x];
       }
     }
 
     /** Clears all Person objects from this group. (This method will in
      * turn inform each ex-member that they are no longer members.) */
     public void removeEveryoneFromGroup(){
-      for(int x = 0; x<students.size(); x++){
-        students.get(x).leaveGroup(this);
+      while(!students.isEmpty()){
+        students.get(students.size()-1).leaveGroup(this);
       }
     }
 
+    /** Save the list of this group's members to the checkpoint passed. (See
+     * {@link Person#writeGroups}.) */
+    void writeStudents(ObjectOutputStream out) throws IOException {
+      out.writeObject(students);
+    }
+
+    /** Restore the list saved by {@link #writeStudents}. */
+    @SuppressWarnings("unchecked")
+    void readStudents(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+      students = (ArrayList<Person>) in.readObject();
+    }
+
+    /** Start this group's random number stream over, derived from the
+     * simulation's (new) seed. (See {@link Sim#fork}.) */
+    void reseed(){
+      random.setSeed(AgentRandom.streamSeed(sim.seed(), AgentRandom.GROUP,
+          id));
+    }
+
 }
@@ -0,0 +1,402 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import sim.engine.*;
+
+/**
+ * Runs every group's month. {@link Sim} schedules this once, to repeat every
+ * month, in place of scheduling each {@link Group}; it does nothing during
+ * the summer.
+ * <p></p>
+ * If {@link Parameters#numThreads} is zero, each group steps in turn, in a random
+ * order (drawn afresh each month from the Sim's generator.) Otherwise,
+ * groups that can't affect one another act at the same time.
+ * <p></p>
+ * A group's month touches more than its own members. Recruiting reads (and
+ * then changes) students from anywhere in the population, and influencing a
+ * member changes the running totals of every group that member belongs to.
+ * So each month, before anyone acts:
+ * <ol>
+ * <li>Every group picks the students it will try to recruit (see {@link
+ * Group#chooseRecruits}), drawing from its own random number stream (see
+ * {@link AgentRandom}).</li>
+ * <li>The phase builds a <b>conflict graph</b>, with an edge between two
+ * groups if they have a member or a recruit in common.</li>
+ * <li>The graph is colored greedily, largest degree first, so no two groups
+ * of the same color conflict.</li>
+ * </ol>
+ * Then the colors run one after another, in order, and the groups of each
+ * color run concurrently. While they do, a group changes its own totals
+ * directly, but its changes to other groups' totals are recorded (see {@link
+ * DeferredTotals}), and only made once the whole color has finished. So
+ * groups of the same color read and write entirely separate state: no
+ * students in common, and no totals in common. (A group whose totals a
+ * color changes can't be of that color itself, since it shares the member
+ * that changed with the group that changed it.) The changes are recorded
+ * in batches of groups that don't depend on the number of threads, and made
+ * in order, so the results are the same on any number of threads: the same
+ * as running every group one at a time in color order, except for the
+ * rounding of the sums of the changes to each group's totals. (That serial
+ * schedule can be run instead, to check against; see {@link
+ * Parameters#serialGroupSchedule}. It uses the same recruits and coloring,
+ * and each group draws from the same stream, but every change is made as
+ * soon as it happens. Neither reproduces the random order of the groups
+ * when numThreads is zero.)
+ * <p></p>
+ * How much parallelism the coloring allowed is written each (parallel) month
+ * to
+ * <code>groupColoring<i>SIMTAG</i>.csv</code>: the number of groups, of
+ * conflicts, and of colors, the size of the largest color, and the mean
+ * number of groups per color (the most that can run at once, on average.)
+ */
+public class GroupPhase implements Steppable {
+
+    private static final long serialVersionUID = 1;
+
+    /** The most groups (of one color) handed to a thread as one task. */
+    static final int GROUPS_PER_TASK = 16;
+
+    private final Sim sim;
+    private transient PhaseExecutor executor;
+    private transient PrintWriter report;
+
+    // Each group's chosen recruits, by position in sim.getGroups().
+    private final ArrayList<ArrayList<Person>> recruits =
+        new ArrayList<ArrayList<Person>>();
+
+    // The conflict graph, in compressed form: the neighbors of group g are
+    // neighbors[neighborStart[g]] up to neighbors[neighborStart[g+1]].
+    private int[] neighborStart = new int[1];
+    private int[] neighbors = new int[1024];
+    private int numEdges;
+
+    // The changes to other groups' totals made by each task of a color.
+    private transient ArrayList<DeferredTotals> deferred;
+
+    // Scratch space for building the graph. A "resource" is something a
+    // group can touch: a student, numbered by row in sim.attributes.
+    private int[] claimStart = new int[1];
+    private int[] claims = new int[1024];
+    private int[] claimantStart = new int[1];
+    private int[] claimants = new int[1024];
+    private int[] stamps = new int[1024];
+
+    // Each group's color, and the groups of each color, in order: color c
+    // is classes[classStart[c]] up to classes[classStart[c+1]].
+    private int[] colors = new int[0];
+    private int[] classStart = new int[1];
+    private int[] classes = new int[0];
+    private int numColors;
+
+    // The serial order of the groups.
+    private int[] order = new int[0];
+
+    /**
+     * Create a phase for the groups of the simulation passed, that runs on
+     * the executor passed, or, if it is null, serially. */
+    GroupPhase(Sim sim, PhaseExecutor executor) {
+        this.sim = sim;
+        setExecutor(executor, false);
+    }
+
+    /**
+     * Run on the executor passed from now on, or, if it is null, serially.
+     * If append is true, a coloring report already in progress is continued
+     * rather than started over. (For a simulation restored from a
+     * checkpoint; see {@link Sim#fork}.)
+     */
+    void setExecutor(PhaseExecutor executor, boolean append) {
+        this.executor = executor;
+        close();
+        if (executor == null || !sim.params.writeOutput) {
+            return;
+        }
+        try {
+            String name = "groupColoring" + sim.params.simtag + ".csv";
+            boolean fresh = !append || sim.outputs.length(name) == 0;
+            report = new PrintWriter(new BufferedWriter(
+                sim.outputs.openWriter(name, append)));
+            if (fresh) {
+                report.println("year,time,groups,conflicts,colors," +
+                    "largestColor,meanColorSize");
+            }
+            report.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Have every group perform this month's actions (one color at a time,
+     * if in parallel), if this is an academic month.
+     */
+    public void step(SimState state) {
+        if (!sim.isAcademicMonth()) {
+            return;
+        }
+        final List<Group> groups = sim.getGroups();
+        int n = groups.size();
+
+        if (executor == null) {
+            order = sim.randomOrder(order, n);
+            for (int i = 0; i < n; i++) {
+                groups.get(order[i]).step(state);
+            }
+            return;
+        }
+
+        while (recruits.size() < n) {
+            recruits.add(null);
+        }
+        for (int g = 0; g < n; g++) {
+            recruits.set(g, groups.get(g).chooseRecruits());
+        }
+
+        buildConflictGraph(groups);
+        color(n);
+
+        int largest = 0;
+        for (int c = 0; c < numColors; c++) {
+            largest = Math.max(largest, classStart[c + 1] - classStart[c]);
+        }
+        if (sim.params.serialGroupSchedule) {
+            runInColorOrder(groups);
+        } else {
+            runColors(groups);
+        }
+        for (int g = 0; g < n; g++) {
+            recruits.set(g, null);
+        }
+
+        report(state, n, largest);
+    }
+
+    // Run the groups passed one at a time, color by color, each making its
+    // changes to other groups' totals as it goes.
+    private void runInColorOrder(List<Group> groups) {
+        for (int i = 0; i < classStart[numColors]; i++) {
+            int g = classes[i];
+            groups.get(g).act(recruits.get(g), null);
+        }
+    }
+
+    // Run the groups passed color by color, the groups of each color in
+    // parallel, making each color's changes to other groups' totals once
+    // it has finished.
+    private void runColors(final List<Group> groups) {
+        if (deferred == null) {
+            deferred = new ArrayList<DeferredTotals>();
+        }
+        for (int c = 0; c < numColors; c++) {
+            final int lo = classStart[c];
+            final int hi = classStart[c + 1];
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int t = lo; t < hi; t += GROUPS_PER_TASK) {
+                final int from = t;
+                final int to = Math.min(hi, t + GROUPS_PER_TASK);
+                if (tasks.size() == deferred.size()) {
+                    deferred.add(new DeferredTotals(
+                        sim.params.preferencePoolSize,
+                        sim.params.hobbyPoolSize));
+                }
+                final DeferredTotals changes = deferred.get(tasks.size());
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        for (int i = from; i < to; i++) {
+                            int g = classes[i];
+                            changes.setActor(groups.get(g));
+                            groups.get(g).act(recruits.get(g), changes);
+                        }
+                        return null;
+                    }
+                });
+            }
+            executor.runAll(tasks);
+            for (int t = 0; t < tasks.size(); t++) {
+                deferred.get(t).apply();
+            }
+        }
+    }
+
+    // Fill in neighborStart and neighbors for the groups passed.
+    private void buildConflictGraph(List<Group> groups) {
+        int n = groups.size();
+        int numResources = 0;
+        for (int g = 0; g < n; g++) {
+            Group group = groups.get(g);
+            for (int x = 0; x < group.getSize(); x++) {
+                numResources = Math.max(numResources,
+                    group.getPersonAtIndex(x).getRow() + 1);
+            }
+            ArrayList<Person> r = recruits.get(g);
+            for (int x = 0; x < r.size(); x++) {
+                numResources = Math.max(numResources, r.get(x).getRow() + 1);
+            }
+        }
+
+        // Each group's claims on resources (without duplicates.)
+        claimStart = ensure(claimStart, n + 1);
+        stamps = ensure(stamps, Math.max(numResources, n));
+        Arrays.fill(stamps, 0, Math.max(numResources, n), -1);
+        int numClaims = 0;
+        for (int g = 0; g < n; g++) {
+            claimStart[g] = numClaims;
+            Group group = groups.get(g);
+            for (int x = 0; x < group.getSize(); x++) {
+                numClaims = claim(group.getPersonAtIndex(x).getRow(), g,
+                    numClaims);
+            }
+            ArrayList<Person> r = recruits.get(g);
+            for (int x = 0; x < r.size(); x++) {
+                numClaims = claim(r.get(x).getRow(), g, numClaims);
+            }
+        }
+        claimStart[n] = numClaims;
+
+        // Invert them, into each resource's claimants.
+        claimantStart = ensure(claimantStart, numResources + 1);
+        Arrays.fill(claimantStart, 0, numResources + 1, 0);
+        for (int i = 0; i < numClaims; i++) {
+            claimantStart[claims[i] + 1]++;
+        }
+        for (int r = 0; r < numResources; r++) {
+            claimantStart[r + 1] += claimantStart[r];
+        }
+        claimants = ensure(claimants, numClaims);
+        for (int g = 0; g < n; g++) {
+            for (int i = claimStart[g]; i < claimStart[g + 1]; i++) {
+                claimants[claimantStart[claims[i]]++] = g;
+            }
+        }
+        for (int r = numResources; r > 0; r--) {
+            claimantStart[r] = claimantStart[r - 1];
+        }
+        claimantStart[0] = 0;
+
+        // Two groups conflict if they claim a resource in common.
+        neighborStart = ensure(neighborStart, n + 1);
+        Arrays.fill(stamps, 0, n, -1);
+        numEdges = 0;
+        for (int g = 0; g < n; g++) {
+            neighborStart[g] = numEdges;
+            stamps[g] = g;
+            for (int i = claimStart[g]; i < claimStart[g + 1]; i++) {
+                int r = claims[i];
+                for (int j = claimantStart[r]; j < claimantStart[r + 1];
+                    j++) {
+                    int h = claimants[j];
+                    if (stamps[h] != g) {
+                        stamps[h] = g;
+                        neighbors = ensure(neighbors, numEdges + 1);
+                        neighbors[numEdges++] = h;
+                    }
+                }
+            }
+        }
+        neighborStart[n] = numEdges;
+    }
+
+    // Record group g's claim on resource r (unless it already has one), and
+    // return the new number of claims.
+    private int claim(int r, int g, int numClaims) {
+        if (stamps[r] == g) {
+            return numClaims;
+        }
+        stamps[r] = g;
+        claims = ensure(claims, numClaims + 1);
+        claims[numClaims] = r;
+        return numClaims + 1;
+    }
+
+    // Color the conflict graph of n groups greedily, largest degree first
+    // (ties broken by position), and fill in colors, classStart, and
+    // classes.
+    private void color(int n) {
+        Integer[] order = new Integer[n];
+        for (int g = 0; g < n; g++) {
+            order[g] = g;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int da = neighborStart[a + 1] - neighborStart[a];
+                int db = neighborStart[b + 1] - neighborStart[b];
+                return da != db ? db - da : a - b;
+            }
+        });
+
+        colors = ensure(colors, n);
+        Arrays.fill(colors, 0, n, -1);
+        // stamps[c] == g means color c is taken by one of g's neighbors.
+        stamps = ensure(stamps, n + 1);
+        Arrays.fill(stamps, 0, n + 1, -1);
+        numColors = 0;
+        for (int k = 0; k < n; k++) {
+            int g = order[k];
+            for (int i = neighborStart[g]; i < neighborStart[g + 1]; i++) {
+                int c = colors[neighbors[i]];
+                if (c >= 0) {
+                    stamps[c] = g;
+                }
+            }
+            int c = 0;
+            while (stamps[c] == g) {
+                c++;
+            }
+            colors[g] = c;
+            numColors = Math.max(numColors, c + 1);
+        }
+
+        classStart = ensure(classStart, numColors + 1);
+        Arrays.fill(classStart, 0, numColors + 1, 0);
+        for (int g = 0; g < n; g++) {
+            classStart[colors[g] + 1]++;
+        }
+        for (int c = 0; c < numColors; c++) {
+            classStart[c + 1] += classStart[c];
+        }
+        classes = ensure(classes, n);
+        int[] next = Arrays.copyOf(classStart, numColors);
+        for (int g = 0; g < n; g++) {
+            classes[next[colors[g]]++] = g;
+        }
+    }
+
+    private void report(SimState state, int n, int largest) {
+        double meanColorSize = numColors == 0 ? 0 : n / (double) numColors;
+        if (Log.enabled(Log.DEBUG)) {
+            Log.debug("#### GROUP PHASE (" + state.schedule.getTime() +
+                ") (" + n + " groups, " + numEdges / 2 + " conflicts, " +
+                numColors + " colors, largest " + largest + ", mean " +
+                meanColorSize + ")");
+        }
+        if (report != null) {
+            report.println(sim.getCurrYearNum() + "," +
+                state.schedule.getTime() + "," + n + "," + numEdges / 2 + "," +
+                numColors + "," + largest + "," + meanColorSize);
+            report.flush();
+        }
+    }
+
+    /** Close the coloring report. */
+    void close() {
+        if (report != null) {
+            report.close();
+            report = null;
+        }
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        if (array.length >= size) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+}
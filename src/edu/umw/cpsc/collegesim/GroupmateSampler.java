@@ -0,0 +1,88 @@
+package edu.umw.cpsc.collegesim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Draws random groupmates for a student: uniformly random members of the
+ * <i>union</i> of that student's groups, without building that union.
+ * <p></p>
+ * A draw picks a random (group, member) slot, weighting each group by its
+ * size, which is uniform over the concatenation of all the groups. A student
+ * who belongs to m of the groups occupies m slots, so the draw is accepted
+ * with probability 1/m, which makes every distinct groupmate equally likely.
+ * Since students are in only a handful of groups, a draw is cheap and
+ * allocates nothing.
+ * <p></p>
+ * Counting the distinct students in the union (which is only needed when
+ * the groups are small) uses a scratch array indexed by row in {@link
+ * Sim#attributes}, stamped with a fresh epoch number for each count, so the
+ * array never has to be cleared.
+ */
+class GroupmateSampler {
+
+    private int[] stamps = new int[1024];
+    private int epoch;
+
+    /**
+     * Returns the number of distinct students (including the student
+     * themselves) who are in at least one of the groups passed, or the limit
+     * passed if there are at least that many.
+     */
+    int countDistinct(ArrayList<Group> groups, int limit) {
+        if (++epoch == 0) {
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+        int count = 0;
+        for (int x = 0; x < groups.size(); x++) {
+            Group g = groups.get(x);
+            for (int y = 0; y < g.getSize(); y++) {
+                int r = g.getPersonAtIndex(y).getRow();
+                if (r >= stamps.length) {
+                    stamps = Arrays.copyOf(stamps,
+                        Math.max(stamps.length * 2, r + 1));
+                }
+                if (stamps[r] != epoch) {
+                    stamps[r] = epoch;
+                    if (++count == limit) {
+                        return count;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a uniformly random student, other than the one passed, from
+     * among those in at least one of the groups passed, whose sizes add up to
+     * the total passed. (There must be at least one such student.)
+     */
+    Person draw(ArrayList<Group> groups, int totalSize, Person self,
+        MersenneTwisterFast random) {
+        while (true) {
+            int slot = random.nextInt(totalSize);
+            int x = 0;
+            while (slot >= groups.get(x).getSize()) {
+                slot -= groups.get(x).getSize();
+                x++;
+            }
+            Person p = groups.get(x).getPersonAtIndex(slot);
+            if (p == self) {
+                continue;
+            }
+            int multiplicity = 0;
+            for (int y = 0; y < groups.size(); y++) {
+                if (groups.get(y).groupContainsStudent(p)) {
+                    multiplicity++;
+                }
+            }
+            if (multiplicity == 1 || random.nextInt(multiplicity) == 0) {
+                return p;
+            }
+        }
+    }
+}
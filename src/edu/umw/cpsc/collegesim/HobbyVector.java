@@ -0,0 +1,136 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * One student's hobbies. Hobbies auto-normalize: a student has only 1 unit
+ * of time to split among them, so the meaningful value of a hobby is its raw
+ * value divided by the sum of all the student's raw hobby values.
+ * <p></p>
+ * Rather than re-summing (and re-allocating) on every read, a HobbyVector
+ * keeps the running sum of its raw values up to date as they are written,
+ * so reading or writing a single normalized hobby is O(1). The whole
+ * normalized vector, which similarity computations scan, is cached in the
+ * student's row of the {@link AttributeStore} and only rebuilt (in one O(H)
+ * pass, which also re-sums exactly to shed accumulated rounding error) when
+ * some hobby has changed since it was last built.
+ */
+class HobbyVector implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    private final AttributeStore store;
+    private final int row;
+    private double sum;
+    private boolean dirty;
+
+    /**
+     * Wrap the raw hobbies already present in the row passed of the store
+     * passed.
+     */
+    HobbyVector(AttributeStore store, int row) {
+        this.store = store;
+        this.row = row;
+        rebuild();
+    }
+
+    /** Returns the number of hobbies in the vector. */
+    int size() {
+        return store.getNumHobbies();
+    }
+
+    /** Returns the sum of the raw hobby values. */
+    double sum() {
+        return sum;
+    }
+
+    /** Returns the raw (un-normalized) value of the hobby passed. */
+    double getRaw(int index) {
+        return store.values()[store.hobbyOffset(row) + index];
+    }
+
+    /** Returns the normalized value of the hobby passed. */
+    double get(int index) {
+        return getRaw(index) / sum;
+    }
+
+    /** Sets the raw (un-normalized) value of the hobby passed. */
+    void setRaw(int index, double val) {
+        double[] values = store.values();
+        int i = store.hobbyOffset(row) + index;
+        sum += val - values[i];
+        values[i] = val;
+        dirty = true;
+    }
+
+    /**
+     * Sets the <i>normalized</i> value of the hobby passed to the value
+     * passed, by adjusting its raw value with respect to the (unchanged) raw
+     * values of all the others. This has the side effect of scaling down (or
+     * up) the normalized values of the other hobbies.
+     */
+    void set(int index, double val) {
+        double sumOfOthers = sum - getRaw(index);
+        setRaw(index, (val * sumOfOthers)/(1-val));
+    }
+
+    /**
+     * Returns the index into {@link AttributeStore#values()} of the first
+     * normalized hobby of this vector, rebuilding the cached normalized view
+     * first if need be.
+     */
+    int normalizedOffset() {
+        if (dirty) {
+            rebuild();
+        }
+        return store.normalizedHobbyOffset(row);
+    }
+
+    /**
+     * Add each normalized hobby to the corresponding element of the array
+     * passed.
+     */
+    void addNormalizedTo(double[] totals) {
+        double[] values = store.values();
+        int offset = normalizedOffset();
+        for (int i=0; i<totals.length; i++) {
+            totals[i] += values[offset + i];
+        }
+    }
+
+    /**
+     * Subtract each normalized hobby from the corresponding element of the
+     * array passed.
+     */
+    void subtractNormalizedFrom(double[] totals) {
+        double[] values = store.values();
+        int offset = normalizedOffset();
+        for (int i=0; i<totals.length; i++) {
+            totals[i] -= values[offset + i];
+        }
+    }
+
+    /** Returns a copy of the raw hobby values. */
+    double[] copyRaw() {
+        int offset = store.hobbyOffset(row);
+        return Arrays.copyOfRange(store.values(), offset,
+            offset + size());
+    }
+
+    private void rebuild() {
+        double[] values = store.values();
+        int rawOffset = store.hobbyOffset(row);
+        int normalOffset = store.normalizedHobbyOffset(row);
+        int n = size();
+        double s = 0.0;
+        for (int i=0; i<n; i++) {
+            s += values[rawOffset + i];
+        }
+        for (int i=0; i<n; i++) {
+            values[normalOffset + i] = values[rawOffset + i] / s;
+        }
+        sum = s;
+        dirty = false;
+    }
+}
@@ -0,0 +1,153 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A map from non-negative ints (such as person IDs) to non-negative ints
+ * (such as handles), stored in a single open-addressing hash table with
+ * linear probing. Lookups and updates are O(1) expected time and never
+ * allocate (except when the table grows), which matters because {@link
+ * Person} asks "are we friends?" on every encounter.
+ * <p></p>
+ * Removal shifts later entries of a probe run back into the vacated slot,
+ * so the table never fills up with "deleted" markers.
+ */
+class IntIntHashMap implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    // Marks an unoccupied slot (keys must be non-negative), and is what
+    // get() returns for an absent key (so values must be non-negative too).
+    static final int NONE = -1;
+
+    private int[] keys;
+    private int[] vals;
+    private int size;
+    private int mask;
+    private int shift;
+
+    IntIntHashMap() {
+        this(8);
+    }
+
+    /** Creates a map able to hold the number of entries passed before it
+     * needs to grow. */
+    IntIntHashMap(int expectedSize) {
+        int capacity = 4;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        vals = new int[capacity];
+        Arrays.fill(keys, NONE);
+        mask = capacity - 1;
+        shift = Integer.numberOfLeadingZeros(mask);
+    }
+
+    private int slotFor(int key) {
+        // Fibonacci hashing, so that runs of consecutive IDs spread out.
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    /** Returns the number of entries in the map. */
+    int size() {
+        return size;
+    }
+
+    /** Returns whether the key passed is in the map. */
+    boolean containsKey(int key) {
+        return get(key) != NONE;
+    }
+
+    /** Returns the value for the key passed, or {@link #NONE} if absent. */
+    int get(int key) {
+        int i = slotFor(key);
+        while (keys[i] != NONE) {
+            if (keys[i] == key) {
+                return vals[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /** Maps the key passed to the value passed, replacing any previous
+     * value. */
+    void put(int key, int val) {
+        int i = slotFor(key);
+        while (keys[i] != NONE) {
+            if (keys[i] == key) {
+                vals[i] = val;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        vals[i] = val;
+        if (++size * 4 > keys.length * 3) {
+            grow();
+        }
+    }
+
+    /** Removes the key passed, returning its value, or {@link #NONE} if it
+     * was not present. */
+    int remove(int key) {
+        int i = slotFor(key);
+        while (keys[i] != key) {
+            if (keys[i] == NONE) {
+                return NONE;
+            }
+            i = (i + 1) & mask;
+        }
+        int removed = vals[i];
+        // Shift back any later keys of this run that belong at or before the
+        // slot we just vacated.
+        int gap = i;
+        i = (i + 1) & mask;
+        while (keys[i] != NONE) {
+            int home = slotFor(keys[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                vals[gap] = vals[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[gap] = NONE;
+        size--;
+        return removed;
+    }
+
+    /** Returns a newly allocated array of all the values in the map. */
+    int[] values() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != NONE) {
+                result[n++] = vals[i];
+            }
+        }
+        return result;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldVals = vals;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != NONE) {
+                int i = slotFor(oldKeys[j]);
+                while (keys[i] != NONE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                vals[i] = oldVals[j];
+            }
+        }
+    }
+}
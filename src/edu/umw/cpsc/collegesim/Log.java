@@ -0,0 +1,81 @@
+package edu.umw.cpsc.collegesim;
+
+/**
+ * A minimal leveled logger for the simulation's progress and diagnostic
+ * messages, which go to standard output.
+ * <p></p>
+ * Messages at a level more detailed than {@link #LEVEL} are discarded. To
+ * make a discarded message cost nothing, callers building a message from
+ * pieces should check first, so the string is never built:
+ * <pre>
+ *   if (Log.enabled(Log.TRACE)) {
+ *       Log.trace("#### PERSON " + id + " (" + time + ")");
+ *   }
+ * </pre>
+ * Year-by-year progress is logged at {@link #INFO} (the default level),
+ * each Sim step at {@link #DEBUG}, and each Person and Group step at
+ * {@link #TRACE}. (See <code>-logLevel</code> in {@link Sim}.)
+ */
+public class Log {
+
+    public static final int ERROR = 0;
+    public static final int WARN = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+    public static final int TRACE = 4;
+
+    private static final String[] NAMES =
+        { "error", "warn", "info", "debug", "trace" };
+
+    /** The most detailed level of message that will be output. */
+    public static int LEVEL = INFO;
+
+    /** Returns whether messages at the level passed will be output. */
+    public static boolean enabled(int level) {
+        return level <= LEVEL;
+    }
+
+    /**
+     * Returns the level named (case-insensitively) by the string passed, or
+     * -1 if there is none.
+     */
+    public static int parse(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the name of the level passed. */
+    public static String name(int level) {
+        return NAMES[level];
+    }
+
+    public static void error(String message) {
+        log(ERROR, message);
+    }
+
+    public static void warn(String message) {
+        log(WARN, message);
+    }
+
+    public static void info(String message) {
+        log(INFO, message);
+    }
+
+    public static void debug(String message) {
+        log(DEBUG, message);
+    }
+
+    public static void trace(String message) {
+        log(TRACE, message);
+    }
+
+    private static void log(int level, String message) {
+        if (level <= LEVEL) {
+            System.out.println(message);
+        }
+    }
+}
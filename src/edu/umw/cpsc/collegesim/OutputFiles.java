@@ -0,0 +1,145 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+
+/**
+ * Where a simulation's output files go: normally the current directory,
+ * but, for benchmarks, some other directory ({@link #in(File)}), or nowhere
+ * at all ({@link #DISCARD}), so that the work of formatting the output can
+ * be timed without the cost of storing it. Files are named as they would
+ * be in the current directory (for example, <code>"people"+simtag+".csv"
+ * </code>.) A simulation's checkpoints go with its output files, and a
+ * fork's files are cut back, or copied, in the same place (see {@link
+ * Sim#fork(File, String[], OutputFiles)}.)
+ */
+class OutputFiles {
+
+    /** Files in the current directory. */
+    static final OutputFiles CURRENT_DIRECTORY = new OutputFiles(null, false);
+
+    /**
+     * Nowhere: everything written is thrown away, and every file is empty
+     * and doesn't exist.
+     */
+    static final OutputFiles DISCARD = new OutputFiles(null, true);
+
+    // The directory the files are in (null for the current directory), and
+    // whether they are thrown away instead.
+    private final File directory;
+    private final boolean discard;
+
+    private OutputFiles(File directory, boolean discard) {
+        this.directory = directory;
+        this.discard = discard;
+    }
+
+    /** Returns files in the directory passed. */
+    static OutputFiles in(File directory) {
+        return new OutputFiles(directory, false);
+    }
+
+    /**
+     * Open the file passed for writing, appending to it if append is true
+     * (and it already exists), or else starting it over.
+     */
+    OutputStream open(String name, boolean append) throws IOException {
+        if (discard) {
+            return OutputStream.nullOutputStream();
+        }
+        return new FileOutputStream(file(name), append);
+    }
+
+    /**
+     * Like {@link #open(String, boolean)}, but for writing text (in the
+     * platform's default encoding, as a FileWriter would.)
+     */
+    Writer openWriter(String name, boolean append) throws IOException {
+        return new OutputStreamWriter(open(name, append));
+    }
+
+    /** Returns whether the file passed exists. */
+    boolean exists(String name) {
+        return !discard && file(name).exists();
+    }
+
+    /**
+     * Returns the length of the file passed, in bytes, or 0 if it doesn't
+     * exist.
+     */
+    long length(String name) {
+        return discard ? 0 : file(name).length();
+    }
+
+    /** Delete the file passed, if it exists. */
+    void delete(String name) {
+        if (!discard) {
+            file(name).delete();
+        }
+    }
+
+    /**
+     * Cut the file passed back to the length passed.
+     *
+     * @throws IOException if it is shorter than that.
+     */
+    void truncate(String name, long length) throws IOException {
+        if (discard) {
+            return;
+        }
+        RandomAccessFile f = new RandomAccessFile(file(name), "rw");
+        try {
+            if (f.length() < length) {
+                throw new IOException(file(name) +
+                    " is shorter than when the checkpoint was written");
+            }
+            f.setLength(length);
+        } finally {
+            f.close();
+        }
+    }
+
+    /**
+     * Make the file "to" a copy of the first length bytes of the file
+     * "from".
+     *
+     * @throws IOException if "from" is shorter than that.
+     */
+    void copyPrefix(String from, String to, long length) throws IOException {
+        if (discard) {
+            return;
+        }
+        InputStream in = new FileInputStream(file(from));
+        try {
+            OutputStream out = open(to, false);
+            try {
+                byte[] buffer = new byte[1 << 16];
+                while (length > 0) {
+                    int n = in.read(buffer, 0,
+                        (int) Math.min(buffer.length, length));
+                    if (n < 0) {
+                        throw new IOException(file(from) +
+                            " is shorter than when the checkpoint was written");
+                    }
+                    out.write(buffer, 0, n);
+                    length -= n;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private File file(String name) {
+        return new File(directory, name);
+    }
+}
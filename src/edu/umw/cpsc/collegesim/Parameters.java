@@ -0,0 +1,516 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.PrintWriter;
+import java.io.Serializable;
+
+/**
+ * The settings of one run of the simulation: everything that can be given on
+ * the command line (see {@link Sim#printUsageAndQuit()}), with the same
+ * defaults. Each {@link Sim} has its own, so several simulations with
+ * different settings can run in the same process.
+ * <p></p>
+ * A Parameters object should not be changed once the Sim it was given to
+ * has started (except by {@link Sim#fork}, which changes the settings of a
+ * simulation restored from a checkpoint.)
+ */
+public class Parameters implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    /** The random number seed for the simulation. */
+    public long seed = System.currentTimeMillis();
+
+    /** A hashtag identifying the run of the simulation, used in the names of
+     * all its output files. (Mandatory on the command line.) */
+    public long simtag = -1;
+
+    /** The length of the simulation in years. (<code>-maxTime</code>;
+     * mandatory on the command line.) */
+    public int numSimulationYears = -1;
+
+    /**
+     * The number of people, of random year-in-college (fresh, soph, etc.)
+     * that the simulation will begin with. */
+    public int initNumPeople = 4000;
+
+    /**
+     * The number of groups, with random initial membership, that the
+     * simulation will begin with. */
+    public int initNumGroups = 200;
+
+    /** The number of newly enrolling freshmen each year. */
+    public int numFreshmenPerYear = 1000;
+
+    /** The number of new groups to be added each year. */
+    public int numNewGroupsPerYear = 10;
+
+    /** The coefficient (see also {@link #dropoutIntercept}) of a linear
+     * equation to transform alienation to probability of
+     * dropping out. If x is based on the alienation level,
+     * then y=mx+b, where m is the dropoutRate and b the
+     * dropoutIntercept, gives the probability of dropping out. */
+    public double dropoutRate;
+
+    /** See {@link #dropoutRate}. */
+    public double dropoutIntercept;
+
+    /**
+     * Baseline prior probability that a newly generated student will be of
+     * race "WHITE". */
+    public double probWhite = .8;
+
+    /** A number reflecting the relative importance that race has in
+     * determining perceived similarity. The "units" of this constant are
+     * in "equivalent number of attributes"; <i>i.e.</i>, if the
+     * raceWeight is 4, this means that if another person is the same race
+     * as you, this will impact your perceived similarity to them (and
+     * theirs to you) to the same degree that four of your individual
+     * attributes being the same would. (See also {@link
+     * Person#GEN_WEIGHT}.) */
+    public double raceWeight = 5;
+
+    /** The coefficient (see also {@link #friendshipIntercept}) of a linear
+     * equation to transform perceived similarity to probability of
+     * friendship. If x is the perceived similarity, then y=mx+b, where m
+     * is the friendshipCoefficient, b the friendshipIntercept, and y gives
+     * the probability of becoming friends. */
+    public double friendshipCoefficient = .22;
+
+    /** See {@link #friendshipCoefficient}. */
+    public double friendshipIntercept = .05;
+
+    /** Each time step (= 1 month), how many other people from a person's
+     * groups that person will encounter. Note that this number is only
+     * unidirectional; <i>i.e.</i>, this person may well "be met by"
+     * numerous other people when their step() methods run. */
+    public int numToMeetGroup = 10;
+
+    /** Each time step (= 1 month), how many other people from the overall
+     * student body a person will encounter. Note that this number is only
+     * unidirectional; <i>i.e.</i>, this person may well "be met by"
+     * numerous other people when their step() methods run. */
+    public int numToMeetPop = 5;
+
+    /** The number of consecutive months that two friends can <i>not</i>
+     * tickle each other and yet remain friends. */
+    public int decayThreshold = 2;
+
+    /** When a new Student is created, the number of automatic friends of the
+     *  opposite race that they will get. */
+    public int initNumForcedOppRaceFriends = 0;
+
+    /** Each time step, the probability that a student will change one of
+     * their attribute values in response to their peers as a whole. */
+    public double peerDriftRate = .1;
+
+    /** Each time a student changes one of her attribute values in response to
+     * their peers (see {@link #peerDriftRate}), the fraction towards their
+     * peer's mean value for that attribute that student will drift. */
+    public double peerDriftDistance = .2;
+
+    /** The total number of "constant" attributes in the system. (See {@link
+     * Person#CONST_WEIGHT}.) Each person will have a value from 0 to 1 for
+     * each, indicating the extent to which they possess the attribute. (Not
+     * settable from the command line.) */
+    public int constantAttributePoolSize = 0;  // 100;
+
+    /** The number of preferences each person has. (See {@link
+     * Person#PREF_WEIGHT}.) */
+    public int numPreferences = 20;
+
+    /** The total number of "preferences" in the system. (See
+     * {@link Person#PREF_WEIGHT}.) Each person will either have the
+     * attribute or not; and if they do, they will have a double value
+     * assigned indicating its strength. (<code>-numPreferences</code> sets
+     * both this and {@link #numPreferences}.) */
+    public int preferencePoolSize = 20;
+
+    /** The number of "hobbies" attributes each person has. (See {@link
+     * Person#HOBBY_WEIGHT}.) */
+    public int numHobbies = 20;
+
+    /** The total number of "hobbies" in the system. (See
+     * {@link Person#HOBBY_WEIGHT}.) Each person will either have the
+     * attribute or not; and if they do, they will have a double value
+     * assigned indicating its strength. (<code>-numHobbies</code> sets both
+     * this and {@link #numHobbies}.) */
+    public int hobbyPoolSize = 20;
+
+    /**
+     * A threshold that determines the likelihood of whether a student will
+     * join a group. Higher numbers means less acceptance into groups. The
+     * number itself is difficult to interpret, since a complex conflagration
+     * of factors will be put together to compare to it. */
+    public double recruitmentRequired = .6;
+
+    /**
+     * Each time step, the probability that each student will leave each of
+     * their groups, provided that leaving said group would not push the
+     * group size below the minimum. */
+    public double likelihoodOfLeavingGroup = .1;
+
+    /** Each time step, the probability that a student will change one of
+     * their attribute values <i>provided</i> that said attribute is "different
+     * enough" from their influencing peers to warrant change. */
+    public double groupDriftRate = .1;
+
+    /** Each time a student changes one of her attribute values in response to
+     * a group (see {@link #groupDriftRate}), the fraction towards the group's
+     * mean value for that attribute that student will drift. */
+    public double groupDriftDistance = .2;
+
+    /** The number of forced-mixed-race orientation groups to start with. */
+    public int initNumMixedRaceGroups = 0;
+
+    /**
+     * For the forced-mixed-race orientation groups, what fraction should be
+     * composed of minorities?
+     */
+    public double mixedRaceGroupFraction = .5;
+
+    /**
+     * If positive, each month's Person actions are run in bulk-synchronous
+     * parallel by the {@link PersonPhase}, and each month's Group actions by
+     * the {@link GroupPhase}, with this many threads, rather than by each
+     * Person and Group stepping in turn. (Results then depend on the seed
+     * but not on the number of threads.) If zero, Persons and Groups step
+     * serially, in a random order, as they always have: a different
+     * schedule, which no positive number of threads reproduces, so results
+     * with zero threads differ from those with any other number. (To check
+     * the parallel group step against a serial one, see {@link
+     * #serialGroupSchedule}.) */
+    public int numThreads = 0;
+
+    /**
+     * If true (and {@link #numThreads} is positive), the {@link GroupPhase}
+     * still colors the groups each month, but runs them one at a time, in
+     * color order, each making its changes to other groups' totals right
+     * away, rather than running each color in parallel. The Person actions
+     * are run as numThreads says. (Results are the same as the parallel
+     * group step's, except for the rounding of the sums of those changes.)
+     */
+    public boolean serialGroupSchedule = false;
+
+    /**
+     * If true, write the outputs as binary, columnar Arrow streams (see
+     * {@link ColumnarWriter}), to files ending in ".col", rather than as
+     * CSV. */
+    public boolean columnarOutput = false;
+
+    /**
+     * If false (<code>-outputFormat none</code>), write no output files at
+     * all: no yearly people, friendships, or groups files, and no event
+     * logs, whatever their levels. (For runs whose results are collected in
+     * memory; see {@link Sim#setYearEndObserver}.) */
+    public boolean writeOutput = true;
+
+    /**
+     * If positive, write a checkpoint every this many years, at the end of
+     * May, that the simulation can be resumed or forked from. (See {@link
+     * Sim#fork}.) If zero (or if {@link #writeOutput} is false), write
+     * none. */
+    public int checkpointInterval = 0;
+
+    /**
+     * If positive, the first this many years are a burn-in, from the
+     * uniform initial population to a settled friendship network: no output
+     * is written for them, and, if there is a {@link #warmStartCache}, the
+     * state at their end is taken from it rather than simulated, when it's
+     * there. (See {@link Sim#startAfterBurnIn}.) */
+    public int burnInYears = 0;
+
+    /**
+     * The directory of saved burn-ins (see {@link WarmStartCache}), or null
+     * for none. */
+    public String warmStartCache = null;
+
+    /** How large the {@link #warmStartCache} may grow, in megabytes. */
+    public long warmStartCacheMegabytes = 1024;
+
+    /**
+     * How much of the encounter and similarity streams to log. (See {@link
+     * EventLog.Level}.) */
+    public EventLog.Level encounterLogLevel = EventLog.Level.FULL;
+    public EventLog.Level similarityLogLevel = EventLog.Level.FULL;
+
+    /**
+     * When an event stream is logged at the TRACER level, roughly what
+     * fraction of students are tracers. (See {@link EventLog}.) */
+    public double tracerRate = .01;
+
+    /**
+     * How much to report on the console. (See {@link Log}. This is shared
+     * by every simulation in the process, so {@link Sim#main} is what puts
+     * it into effect.) */
+    public int logLevel = Log.INFO;
+
+    /**
+     * Return the settings given by the command-line arguments passed (in the
+     * form described by {@link Sim#printUsageAndQuit()}), with defaults for
+     * the rest. Arguments that aren't recognized are ignored, since MASON
+     * has some of its own.
+     *
+     * @throws IllegalArgumentException if a value is missing or can't be
+     * understood, or if <code>-maxTime</code> or <code>-simtag</code> isn't
+     * given.
+     */
+    public static Parameters parse(String[] args) {
+        Parameters p = new Parameters();
+        p.setAll(args);
+        if (p.numSimulationYears == -1 || p.simtag == -1) {
+            throw new IllegalArgumentException(
+                "-maxTime and -simtag are required");
+        }
+        return p;
+    }
+
+    /**
+     * Change each setting given by the command-line arguments passed,
+     * leaving the rest alone. Arguments that aren't recognized are ignored.
+     *
+     * @throws IllegalArgumentException if a value is missing or can't be
+     * understood.
+     */
+    public void setAll(String[] args) {
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-") || !set(arg.substring(1),
+                i+1 < args.length ? args[i+1] : null)) {
+                continue;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Change the setting named by the command-line flag passed (without its
+     * "-") to the value passed, and return true; or, if there is no such
+     * setting, return false.
+     *
+     * @throws IllegalArgumentException if the value is missing or can't be
+     * understood.
+     */
+    public boolean set(String name, String value) {
+        if (!isSetting(name)) {
+            return false;
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("No value given for -" + name);
+        }
+        if (name.equals("maxTime")) {
+            numSimulationYears = Integer.parseInt(value);
+        } else if (name.equals("simtag")) {
+            simtag = Long.parseLong(value);
+        } else if (name.equals("raceWeight")) {
+            raceWeight = Integer.parseInt(value);
+        } else if (name.equals("probWhite")) {
+            probWhite = Double.parseDouble(value);
+        } else if (name.equals("seed")) {
+            seed = Long.parseLong(value);
+        } else if (name.equals("initNumPeople")) {
+            initNumPeople = Integer.parseInt(value);
+        } else if (name.equals("numFreshmenPerYear")) {
+            numFreshmenPerYear = Integer.parseInt(value);
+        } else if (name.equals("initNumGroups")) {
+            initNumGroups = Integer.parseInt(value);
+        } else if (name.equals("numNewGroupsPerYear")) {
+            numNewGroupsPerYear = Integer.parseInt(value);
+        } else if (name.equals("groupDriftRate")) {
+            groupDriftRate = Double.parseDouble(value);
+        } else if (name.equals("groupDriftDistance")) {
+            groupDriftDistance = Double.parseDouble(value);
+        } else if (name.equals("peerDriftRate")) {
+            peerDriftRate = Double.parseDouble(value);
+        } else if (name.equals("peerDriftDistance")) {
+            peerDriftDistance = Double.parseDouble(value);
+        } else if (name.equals("dropoutRate")) {
+            dropoutRate = Double.parseDouble(value);
+        } else if (name.equals("dropoutIntercept")) {
+            dropoutIntercept = Double.parseDouble(value);
+        } else if (name.equals("numToMeetPop")) {
+            numToMeetPop = Integer.parseInt(value);
+        } else if (name.equals("numToMeetGroup")) {
+            numToMeetGroup = Integer.parseInt(value);
+        } else if (name.equals("decayThreshold")) {
+            decayThreshold = Integer.parseInt(value);
+        } else if (name.equals("friendshipCoefficient")) {
+            friendshipCoefficient = Double.parseDouble(value);
+        } else if (name.equals("friendshipIntercept")) {
+            friendshipIntercept = Double.parseDouble(value);
+        } else if (name.equals("numPreferences")) {
+            numPreferences = preferencePoolSize = Integer.parseInt(value);
+        } else if (name.equals("numHobbies")) {
+            numHobbies = hobbyPoolSize = Integer.parseInt(value);
+        } else if (name.equals("initNumForcedOppRaceFriends")) {
+            initNumForcedOppRaceFriends = Integer.parseInt(value);
+        } else if (name.equals("initNumMixedRaceGroups")) {
+            initNumMixedRaceGroups = Integer.parseInt(value);
+        } else if (name.equals("mixedRaceGroupFraction")) {
+            mixedRaceGroupFraction = Double.parseDouble(value);
+        } else if (name.equals("recruitmentRequired")) {
+            recruitmentRequired = Double.parseDouble(value);
+        } else if (name.equals("likelihoodOfLeavingGroup")) {
+            likelihoodOfLeavingGroup = Double.parseDouble(value);
+        } else if (name.equals("outputFormat")) {
+            if (value.equals("columnar")) {
+                columnarOutput = true;
+                writeOutput = true;
+            } else if (value.equals("csv")) {
+                columnarOutput = false;
+                writeOutput = true;
+            } else if (value.equals("none")) {
+                columnarOutput = false;
+                writeOutput = false;
+            } else {
+                throw new IllegalArgumentException(
+                    "Unknown output format: " + value);
+            }
+        } else if (name.equals("encounterLog")) {
+            encounterLogLevel = parseLevel(value);
+        } else if (name.equals("similarityLog")) {
+            similarityLogLevel = parseLevel(value);
+        } else if (name.equals("threads")) {
+            numThreads = Integer.parseInt(value);
+        } else if (name.equals("groupSchedule")) {
+            if (value.equals("serial")) {
+                serialGroupSchedule = true;
+            } else if (value.equals("parallel")) {
+                serialGroupSchedule = false;
+            } else {
+                throw new IllegalArgumentException(
+                    "Unknown group schedule: " + value);
+            }
+        } else if (name.equals("logLevel")) {
+            logLevel = Log.parse(value);
+            if (logLevel == -1) {
+                throw new IllegalArgumentException(
+                    "Unknown log level: " + value);
+            }
+        } else if (name.equals("tracerRate")) {
+            tracerRate = Double.parseDouble(value);
+        } else if (name.equals("checkpointInterval")) {
+            checkpointInterval = Integer.parseInt(value);
+        } else if (name.equals("burnIn")) {
+            burnInYears = Integer.parseInt(value);
+        } else if (name.equals("warmStartCache")) {
+            warmStartCache = value;
+        } else if (name.equals("warmStartCacheSize")) {
+            warmStartCacheMegabytes = Long.parseLong(value);
+        }
+        return true;
+    }
+
+    // Every command-line flag (without its "-") that set() understands.
+    private static final String[] SETTINGS = { "maxTime", "simtag",
+        "raceWeight", "probWhite", "seed", "initNumPeople",
+        "numFreshmenPerYear", "initNumGroups", "numNewGroupsPerYear",
+        "groupDriftRate", "groupDriftDistance", "peerDriftRate",
+        "peerDriftDistance", "dropoutRate", "dropoutIntercept",
+        "numToMeetPop", "numToMeetGroup", "decayThreshold",
+        "friendshipCoefficient", "friendshipIntercept", "numPreferences",
+        "numHobbies", "initNumForcedOppRaceFriends", "initNumMixedRaceGroups",
+        "mixedRaceGroupFraction", "recruitmentRequired",
+        "likelihoodOfLeavingGroup", "outputFormat", "encounterLog",
+        "similarityLog", "threads", "groupSchedule", "logLevel",
+        "tracerRate",
+        "checkpointInterval", "burnIn", "warmStartCache",
+        "warmStartCacheSize" };
+
+    private static boolean isSetting(String name) {
+        for (int i=0; i<SETTINGS.length; i++) {
+            if (SETTINGS[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static EventLog.Level parseLevel(String value) {
+        EventLog.Level level = EventLog.Level.parse(value);
+        if (level == null) {
+            throw new IllegalArgumentException(
+                "Unknown event log level: " + value);
+        }
+        return level;
+    }
+
+    /**
+     * Return a copy of these settings, which can be changed without
+     * affecting these.
+     */
+    public Parameters copy() {
+        Parameters p = new Parameters();
+        p.copyFrom(this);
+        return p;
+    }
+
+    /** Make every one of these settings the same as those passed. */
+    void copyFrom(Parameters p) {
+        seed = p.seed;
+        simtag = p.simtag;
+        numSimulationYears = p.numSimulationYears;
+        initNumPeople = p.initNumPeople;
+        initNumGroups = p.initNumGroups;
+        numFreshmenPerYear = p.numFreshmenPerYear;
+        numNewGroupsPerYear = p.numNewGroupsPerYear;
+        dropoutRate = p.dropoutRate;
+        dropoutIntercept = p.dropoutIntercept;
+        probWhite = p.probWhite;
+        raceWeight = p.raceWeight;
+        friendshipCoefficient = p.friendshipCoefficient;
+        friendshipIntercept = p.friendshipIntercept;
+        numToMeetGroup = p.numToMeetGroup;
+        numToMeetPop = p.numToMeetPop;
+        decayThreshold = p.decayThreshold;
+        initNumForcedOppRaceFriends = p.initNumForcedOppRaceFriends;
+        peerDriftRate = p.peerDriftRate;
+        peerDriftDistance = p.peerDriftDistance;
+        constantAttributePoolSize = p.constantAttributePoolSize;
+        numPreferences = p.numPreferences;
+        preferencePoolSize = p.preferencePoolSize;
+        numHobbies = p.numHobbies;
+        hobbyPoolSize = p.hobbyPoolSize;
+        recruitmentRequired = p.recruitmentRequired;
+        likelihoodOfLeavingGroup = p.likelihoodOfLeavingGroup;
+        groupDriftRate = p.groupDriftRate;
+        groupDriftDistance = p.groupDriftDistance;
+        initNumMixedRaceGroups = p.initNumMixedRaceGroups;
+        mixedRaceGroupFraction = p.mixedRaceGroupFraction;
+        numThreads = p.numThreads;
+        serialGroupSchedule = p.serialGroupSchedule;
+        columnarOutput = p.columnarOutput;
+        writeOutput = p.writeOutput;
+        checkpointInterval = p.checkpointInterval;
+        encounterLogLevel = p.encounterLogLevel;
+        similarityLogLevel = p.similarityLogLevel;
+        tracerRate = p.tracerRate;
+        logLevel = p.logLevel;
+        burnInYears = p.burnInYears;
+        warmStartCache = p.warmStartCache;
+        warmStartCacheMegabytes = p.warmStartCacheMegabytes;
+    }
+
+    /**
+     * Write the settings that identify a run, one "name=value" per line, in
+     * the format of the <code>sim_params<i>SIMTAG</i>.txt</code> file.
+     */
+    public void print(PrintWriter out) {
+        out.println("seed="+seed);
+        out.println("maxTime="+numSimulationYears);
+        out.println("simtag="+simtag);
+        out.println("raceWeight="+raceWeight);
+        out.println("initNumPeople="+initNumPeople);
+        out.println("numFreshmenPerYear="+numFreshmenPerYear);
+        out.println("initNumGroups="+initNumGroups);
+        out.println("numNewGroupsPerYear="+numNewGroupsPerYear);
+        out.println("outputFormat="+
+            (!writeOutput ? "none" : columnarOutput ? "columnar" : "csv"));
+        out.println("encounterLog="+encounterLogLevel.name().toLowerCase());
+        out.println("similarityLog="+similarityLogLevel.name().toLowerCase());
+        out.println("tracerRate="+tracerRate);
+        out.println("threads="+numThreads);
+        out.println("groupSchedule="+
+            (serialGroupSchedule ? "serial" : "parallel"));
+        out.println("burnIn="+burnInYears);
+    }
+}
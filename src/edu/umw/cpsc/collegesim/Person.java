@@ -2,11 +2,11 @@ package edu.umw.cpsc.collegesim;
 import java.io.IOException;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Hashtable;
-import java.util.Enumeration;
+import java.util.Arrays;
 
 import sim.util.distribution.Normal;
 
@@ -15,7 +15,6 @@ import java.lang.Math;
 import sim.engine.*;
 import sim.util.*;
 import ec.util.*;
-import sim.field.network.*;
 
 /**
  * A student in the CollegeSim model.
@@ -36,13 +35,15 @@ import sim.field.network.*;
  *          all weighted differently.</li> 
  *          <li>Based on the similarity, determine whether they become
  *          friends. (This is random, but based in part on {@link
- *          #FRIENDSHIP_COEFFICIENT} and {@link #FRIENDSHIP_INTERCEPT}.)</li>
+ *          Parameters#friendshipCoefficient} and {@link
+ *          Parameters#friendshipIntercept}.)</li>
  *          </ol>
  *      </li>
  *      </ul>
  * </li>
  * <li>Every month, decay friendships. Any friend who has not tickled / been
- * tickled since {@link #DECAY_THRESHOLD} becomes a non-friend.</li>
+ * tickled since {@link Parameters#decayThreshold} becomes a non-friend. (See
+ * {@link DecayScheduler}.)</li>
  * <li>This class can also compute how alienated the person feels based on her
  * number of friends (and your extroversion, currently constant). This is used
  * by {@link Sim} to drop students out.</li>
@@ -53,27 +54,17 @@ import sim.field.network.*;
  */
 public class Person implements Steppable {
 
+    private static final long serialVersionUID = 1;
+
     public enum Race { WHITE, MINORITY };
     public enum Gender { MALE, FEMALE };
 
-    /**
-     * Baseline prior probability that a newly generated student will be of
-     * race "WHITE". */
-    public static double PROBABILITY_WHITE;
 
     /**
      * Baseline prior probability that a newly generated student will be of
      * gender "FEMALE". */
     public static final double PROBABILITY_FEMALE = 1;
     
-    /** A number reflecting the relative importance that race has in
-     * determining perceived similarity. The "units" of this constant are
-     * in "equivalent number of attributes"; <i>i.e.</i>, if the
-     * RACE_WEIGHT is 4, this means that if another person is the same race
-     * as you, this will impact your perceived similarity to them (and
-     * theirs to you) to the same degree that four of your individual
-     * attributes being the same would. */
-    public static double RACE_WEIGHT;
 
     /** A number reflecting the relative importance that gender has in
      * determining perceived similarity. The "units" of this constant are
@@ -104,158 +95,93 @@ public class Person implements Steppable {
      * biking has an effect on the amount of time you spend reading graphic
      * novels, because time is constant. */
     public static final double HOBBY_WEIGHT = 2.5;
-    
-    /** The coefficient (see also {@link #FRIENDSHIP_INTERCEPT}) of a linear
-     * equation to transform perceived similarity to probability of
-     * friendship. If x is the perceived similarity, then y=mx+b, where m
-     * is the FRIENDSHIP_COEFFICIENT, b the FRIENDSHIP_INTERCEPT, and y gives
-     * the probability of becoming friends. */
-    public static double FRIENDSHIP_COEFFICIENT;
-
-    /** See {@link #FRIENDSHIP_COEFFICIENT}. */
-    public static double FRIENDSHIP_INTERCEPT;
-  
-    /** Each time step (= 1 month), how many other people from a person's 
-     * groups that person will encounter. Note that this number is only
-     * unidirectional; <i>i.e.</i>, this person may well "be met by" 
-     * numerous other people when their step() methods run. */
-    public static int NUM_TO_MEET_GROUP;
-
-    /** Each time step (= 1 month), how many other people from the overall
-     * student body a person will encounter. Note that this number is only
-     * unidirectional; <i>i.e.</i>, this person may well "be met by" 
-     * numerous other people when their step() methods run. */
-    public static int NUM_TO_MEET_POP;
-
-    /** The number of consecutive months that two friends can <i>not</i>
-     * tickle each other and yet remain friends. */
-    public static int DECAY_THRESHOLD;
-
-    /** When a new Student is created, the number of automatic friends of the
-     *  opposite race that they will get. */
-    public static int INITIAL_NUM_FORCED_OPPOSITE_RACE_FRIENDS;
-    
-    /** Each time step, the probability that a student will change one of
-     * their attribute values in response to their peers as a whole. */
-    public static double LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE;
 
-    /** Each time a student changes one of her attribute values in response to
-     * their peers (see {@link #LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE}),
-     * the fraction towards their peer's mean value for that attribute that
-     * student will drift. */
-    public static double DRIFT_DISTANCE;
+    // The simulation this person belongs to, and its settings.
+    private final Sim sim;
+    private final Parameters params;
+
+    // This person's unique number (handed out consecutively by the Sim.)
+    private int id;
 
-    // Hand out consecutive unique numbers to new people.
-    private static int nextPersonId = 0; private int id;
+    // This person's own stream of random numbers. (See AgentRandom.)
+    private final AgentRandom random;
 
     private int year;
 /*
  *  Take out extroversion for now. Everyone is at .5.
     private Normal extroversionDistro = 
-        new Normal(.5, .15, Sim.instance( ).random);
+        new Normal(.5, .15, random);
 */
     
     private Race race;
     private Gender gender;
     
     private double extroversion;
-    private ArrayList<Group> groups;
-  
-    /** The total number of "constant" attributes in the system. (See {@link
-     * #CONST_WEIGHT}.) Each person will have a value from 0 to 1 for each,
-     * indicating the extent to which they possess the attribute. */
-    public static int CONSTANT_ATTRIBUTE_POOL_SIZE = 0;  // 100;
-    private ArrayList<Double> constantAttrs     //Constant attributes
-        = new ArrayList<Double>(
-            Collections.nCopies(CONSTANT_ATTRIBUTE_POOL_SIZE, 0.0));
-  
-    /** The number of preferences each person has. (See {@link
-     * #PREF_WEIGHT}.) */
-    public static int NUM_PREFERENCES;
-
-    /** The total number of "preferences" in the system. (See 
-     * {@link #PREF_WEIGHT}.) Each person will either have the attribute or
-     * not; and if they do, they will have a double value assigned
-     * indicating its strength. (Morgan: is this still accurate?) */
-    public static int PREFERENCE_POOL_SIZE;
-
-    //A person's preferences, which can change but do not affect each other
-    private ArrayList<Double> preferences
-      = new ArrayList<Double>(Collections.nCopies(
-            PREFERENCE_POOL_SIZE, 0.0));
-  
-    /** The number of "hobbies" attributes each person has. (See {@link
-     * #HOBBY_WEIGHT}.) */
-    public static int NUM_HOBBIES;
+    // (Saved in checkpoints by the Sim, not with the rest of the Person;
+    // see writeGroups().)
+    private transient ArrayList<Group> groups;
+
+    // Each group's position in groups, by group id.
+    private IntIntHashMap groupPositions;
+
+    //False once this person has graduated or dropped out.
+    private boolean active = true;
 
-    /** The total number of "hobbies" in the system. (See 
-     * {@link #HOBBY_WEIGHT}.) Each person will either have the attribute or
-     * not; and if they do, they will have a double value assigned
-     * indicating its strength. */
-    public static int HOBBY_POOL_SIZE;
+    //This person's row in sim.attributes, which holds their constant
+    //attributes, preferences, and hobbies
+    private int row;
 
     //hobbies, which can change but you only have 1 unit to 
     //split among them
     //in other words, if one increases, then another decreases
-    private ArrayList<Double> hobbies
-      = new ArrayList<Double>(Collections.nCopies(HOBBY_POOL_SIZE, 0.0));
+    private HobbyVector hobbies;
 
     /**
-    * The following ArrayLists are used to store each student's influencible
-    * preferences at the beginning and end of each year. The end of the 
-    * student's last year will be the preferences and hobbies 
-    * variables
+    * The following arrays are used to store each student's influencible
+    * preferences at the beginning and end of each year. The end of the
+    * student's last year will be the preferences and hobbies
+    * in this student's row of sim.attributes
     */
-    private ArrayList<Double> preferencesYear0;
-    private ArrayList<Double> hobbiesYear0;
-    private ArrayList<Double> preferencesYear1;
-    private ArrayList<Double> hobbiesYear1; 
-    private ArrayList<Double> preferencesYear2;
-    private ArrayList<Double> hobbiesYear2; 
-    private ArrayList<Double> preferencesYear3;
-    private ArrayList<Double> hobbiesYear3;
-
-    //A list that will house the absolute sim time that this person first met,
-    //or last tickled, each other person
-    private Hashtable<Integer,Double> lastTickleTime
-      = new Hashtable<Integer,Double>();
+    private double[] preferencesYear0;
+    private double[] hobbiesYear0;
+    private double[] preferencesYear1;
+    private double[] hobbiesYear1;
+    private double[] preferencesYear2;
+    private double[] hobbiesYear2;
+    private double[] preferencesYear3;
+    private double[] hobbiesYear3;
+
+    //Maps the id of each of this person's current friends to the handle of
+    //that friendship in sim.decayScheduler (which tracks when it was last
+    //tickled). Kept in step with the edges of sim.peopleGraph so we can tell
+    //who's a friend without a scan.
+    private IntIntHashMap friendships = new IntIntHashMap();
 
     /*
-     * Personality drift for being affected by a Person's friends.
+     * Personality drift for being affected by a Person's friends. (If
+     * proposals is non-null, only propose the changes; see PersonPhase.)
      */
-    private void personalityDrift( ){
-    	//Get a bag of the edges to the person's friends
-    	Bag b = Sim.peopleGraph.getEdgesIn(this);
-   	    
+    private void personalityDrift(Proposals proposals){
     	//should we add something short for if n=1 or just let it go through
    	    //the loop even though that's kind of a waste
-   	    int n = b.size( );
+   	    int n = sim.peopleGraph.getDegree(this);
    	    //If we have at least a single friend
    	    if(n > 0){
-   	    	ArrayList<Double> preferenceAverage = new ArrayList<Double>();
-   	    	ArrayList<Double> hobbyAverage = new ArrayList<Double>();
-   	    	double tempTotal;
-   	    	//For each attribute
-   	    	for (int x = 0; x < PREFERENCE_POOL_SIZE; x++){
-   	    		//Temporary total for attribute at index x
-   	    		tempTotal = 0;
-   	    		//For each friend
-   	    		for (int y = 0; y < n; y++){
-   	    			//add the value for this attribute to the temporary total
-   	    			tempTotal+=((Person)
-                        ((Edge) b.get(y)).getOtherNode(this)).getPreferences( ).get(x);
-   	    		}
-   	    		//Set the average value for this attribute
-   	    		preferenceAverage.add(tempTotal/n);
+   	    	double[] preferenceAverage = new double[params.preferencePoolSize];
+   	    	double[] hobbyAverage = new double[params.hobbyPoolSize];
+   	    	//For each friend, add their value for each attribute to the
+   	    	//running total for that attribute
+   	    	for (int y = 0; y < n; y++){
+   	    		Person friend = sim.peopleGraph.getFriend(this, y);
+   	    		friend.addPreferencesTo(preferenceAverage);
+   	    		friend.addHobbiesTo(hobbyAverage);
    	    	}
-   	    	//Do the same for hobbies
-   	    	for (int x = 0; x < HOBBY_POOL_SIZE; x++){
-   	    		tempTotal = 0;
-   	    		for (int y = 0; y < n; y++){
-   	    			tempTotal+=((Person)
-                        ((Edge) b.get(y)).getOtherNode(this)).getHobbies( ).get(x);
-   	    		}
-   	    		hobbyAverage.add(tempTotal/n);
+   	    	//Set the average value for each attribute
+   	    	for (int x = 0; x < params.preferencePoolSize; x++){
+   	    		preferenceAverage[x] /= n;
+   	    	}
+   	    	for (int x = 0; x < params.hobbyPoolSize; x++){
+   	    		hobbyAverage[x] /= n;
    	    	}
         
    	    	double distanceI;
@@ -263,24 +189,32 @@ public class Person implements Steppable {
    	    	double increment;
    	    	
    	    	//For each preference 
-   	    	for(int y = 0; y < PREFERENCE_POOL_SIZE; y++){
+   	    	for(int y = 0; y < params.preferencePoolSize; y++){
    	   			//Calculate the distance between the average attribute and this person's attribute
-   	   			distanceI = preferenceAverage.get(y) - getPreferences( ).get(y);
+   	   			distanceI = preferenceAverage[y] - getPreference(y);
    	   			//If we randomly decide to change the attribute
-   	    		if(Sim.instance( ).random.nextDouble(true, true) < LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE){
+   	    		if(random.nextDouble(true, true) < params.peerDriftRate){
    	    			//Calculate an increment by which to change using the distance and a random factor
-   	    			increment = (Sim.instance( ).random.nextDouble(true,true)*DRIFT_DISTANCE) * distanceI;
+   	    			increment = (random.nextDouble(true,true)*params.peerDriftDistance) * distanceI;
    	    			//Set the new preference value to whatever it was before plus the increment
-   	    			setPreferenceValue(y, getPreferences( ).get(y) + increment);
+   	    			if(proposals == null){
+   	    				setPreferenceValue(y, getPreference(y) + increment);
+   	    			}else{
+   	    				proposals.preferenceDrift(this, y, increment);
+   	    			}
    	    		}
    	    	}
    	    	
    	    	//The same process for hobbies
-   	    	for(int y = 0; y < HOBBY_POOL_SIZE; y++){
-   	    		distanceD = hobbyAverage.get(y) - getHobbies( ).get(y);
-   	    		if(Sim.instance().random.nextDouble(true, true) < LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE){  
-   	    			increment = (Sim.instance( ).random.nextDouble(true, true)*DRIFT_DISTANCE)*distanceD;
-   	    			setHobbyValue(y, getHobbies( ).get(y) + increment);
+   	    	for(int y = 0; y < params.hobbyPoolSize; y++){
+   	    		distanceD = hobbyAverage[y] - getHobby(y);
+   	    		if(random.nextDouble(true, true) < params.peerDriftRate){  
+   	    			increment = (random.nextDouble(true, true)*params.peerDriftDistance)*distanceD;
+   	    			if(proposals == null){
+   	    				setHobbyValue(y, getHobby(y) + increment);
+   	    			}else{
+   	    				proposals.hobbyDrift(this, y, increment);
+   	    			}
    	    		}
    	    	}
       	}
@@ -290,91 +224,42 @@ public class Person implements Steppable {
     /** Removes this student from the university, forcing them to leave all 
      * groups. */
     public void leaveUniversity( ){
+    	active = false;
     	//This removes this person from all of their groups
     	for(int i=0; i<groups.size( ); i++){
     		Group group = groups.get(i);
     		group.removeStudent(this);
     	}
+    	//Our friendships end (without decaying), and our friends are no
+    	//longer friends with anyone by our id
+    	for(int i=0; i<sim.peopleGraph.getDegree(this); i++){
+    		sim.decayScheduler.remove(sim.peopleGraph.getEdge(this, i));
+    		sim.peopleGraph.getFriend(this, i).forgetFriend(this);
+    	}
+    	friendships = new IntIntHashMap();
+    	sim.peopleGraph.removeNode(this);
+    	//Give back this person's attribute storage
+    	sim.attributes.releaseRow(row);
+    	row = -1;
     }
     
     
     /**
-     * The person whose id (index) is passed has now been tickled, so this
-     * sets the last tickle time for this person to the current time.
-     */
-    public void refreshLastTickleTime(int index){
-        lastTickleTime.put(index,Sim.instance().schedule.getTime());
-    }
-    
-    /**
-     * Blah, I'm no longer friends with this person, so this completely
-     * removes them from my hashtable (and life.)
+     * The friendship with the person passed has ended, so forget about it.
+     * (The caller is responsible for the edge in sim.peopleGraph.)
      */
-    public void resetLastTickleTime(int index){
-        lastTickleTime.remove(index);
-    }
-    
-    private void decay( ){
-        Enumeration<Integer> friendIDs = lastTickleTime.keys();
-        while (friendIDs.hasMoreElements()) {
-            int friendID = friendIDs.nextElement();
-            Edge toRemoveIn = null;
-            Edge toRemoveOut = null;
-            double val = lastTickleTime.get(friendID);
-            //if the people last met longer than the threshold ago
-            if(Sim.instance().schedule.getTime() - val >= DECAY_THRESHOLD){
-                Sim.instance().encounterWriter.println(
-                    Sim.instance().getCurrYearNum()+","+id+","+friendID+
-                        ",decay");
-                Sim.instance().encounterWriter.flush();
-              //Get a bag of all the edges into this person
-              Bag bIn = Sim.peopleGraph.getEdgesIn(this);
-              //for each of these edges
-              for(int j=0; j<bIn.size( ); j++){
-                //look for the person whose id matches the id of the 
-                //person we want to decay
-                Edge edgeIn = (Edge)bIn.get(j);
-                Person otherPerson = (Person) edgeIn.getOtherNode(this);
-                int otherID = otherPerson.getID( );
-                if(otherID == friendID){
-                  //when we find the person, make their edge the one we 
-                  //want to remove
-                  toRemoveIn = edgeIn;
-                  j = bIn.size( );
-                }
-              }
-              //Do the same with the other edges
-              Bag bOut = Sim.peopleGraph.getEdgesOut(this);
-              Person otherPerson = null;
-              //for each of these edges
-              for(int j=0; j<bOut.size( ); j++){
-                //look for the person whose id matches the id of the person 
-                //we want to decay
-                Edge edgeOut = (Edge)bOut.get(j);
-                otherPerson = (Person) edgeOut.getOtherNode(this);
-                int otherID = otherPerson.getID( );
-                if(otherID == friendID){
-                  //when we find the person, make their edge the one we 
-                  //want to remove
-                  toRemoveOut = edgeOut;
-                  otherPerson.resetLastTickleTime(id);
-                  j = bOut.size( );
-                }
-              }
-              //Do we have to do this? Remove the edge in and the edge out?
-              Sim.peopleGraph.removeEdge(toRemoveIn);
-              Sim.peopleGraph.removeEdge(toRemoveOut);
-              resetLastTickleTime(friendID);
-            }
-          }
+    void forgetFriend(Person friend){
+        friendships.remove(friend.id);
     }
     
-    private void assignAttribute(int numAttr, ArrayList<Double> attr){
+    private void assignAttribute(int numAttr, int offset){
       //boolean okay;
-    	System.out.println(numAttr);
+    	if(Log.enabled(Log.TRACE)){
+    		Log.trace("Assigning " + numAttr + " attributes");
+    	}
       for(int i=0; i<numAttr; i++){
      /*   //pick an attribute to change
-        int index = Sim.instance( ).random.nextInt(poolSize);
+        int index = random.nextInt(poolSize);
         okay = false;
         //while we have not chosen an appropriate index
         while(!okay){
@@ -384,19 +269,19 @@ public class Person implements Steppable {
             okay = true;
           //otherwise, we have to pick a new attribute
           }else{
-            index = Sim.instance( ).random.nextInt(poolSize);
+            index = random.nextInt(poolSize);
           }
         }*/
         //pick a degree to which the person will have this attribute
         //we generate a number between 0 and 1, including 1 but not including 0
-        double degree = Sim.instance( ).random.nextDouble(false, true);
+        double degree = random.nextDouble(false, true);
         //then we set the attribute at index i to be degree
-        attr.set(i, degree);
+        sim.attributes.values()[offset + i] = degree;
       }
     }
     
     private boolean assignRaceGender(double probability){
-      double gen = Sim.instance( ).random.nextDouble();
+      double gen = random.nextDouble();
       if(gen <= probability){
         return true;
       }else{
@@ -404,22 +289,30 @@ public class Person implements Steppable {
       }
     }
     
-    Person() {
-        this.id = nextPersonId++;
+    Person(Sim sim) {
+        this.sim = sim;
+        this.params = sim.params;
+        this.id = sim.nextPersonId();
+        random = AgentRandom.forAgent(sim.seed(), AgentRandom.PERSON, id);
         groups = new ArrayList<Group>( );
+        groupPositions = new IntIntHashMap( );
+        row = sim.attributes.allocateRow();
 
         //Assigning constant attributes
-        for(int i=0; i<CONSTANT_ATTRIBUTE_POOL_SIZE; i++){
-            double rand = Sim.instance( ).random.nextDouble( );
-            constantAttrs.set(i, rand);
+        int constantOffset = sim.attributes.constantOffset(row);
+        for(int i=0; i<params.constantAttributePoolSize; i++){
+            double rand = random.nextDouble( );
+            sim.attributes.values()[constantOffset + i] = rand;
         }
         //Assigning preferences
-        assignAttribute(NUM_PREFERENCES, preferences);
+        assignAttribute(params.numPreferences,
+            sim.attributes.preferenceOffset(row));
         //Assigning hobbies
-        assignAttribute(NUM_HOBBIES, hobbies);
+        assignAttribute(params.numHobbies, sim.attributes.hobbyOffset(row));
+        hobbies = new HobbyVector(sim.attributes, row);
         //
         //Assign a race   
-        boolean white = assignRaceGender(PROBABILITY_WHITE);
+        boolean white = assignRaceGender(params.probWhite);
         if(white){
             race = Race.WHITE;
         }else{
@@ -443,34 +336,37 @@ public class Person implements Steppable {
    * already be friends with that person. Determine whether these two will
    * become friends, and if so, make them so. */
   public void meet(Person personToMeet){
-    double similarity;
-    boolean friends = false;
-    int personToMeetID = personToMeet.getID( );
     //Calculate their similarity rating, and then see if they should become 
     //friends
-    similarity = similarityTo(personToMeet);
-    friends = becomeFriends(similarity);
-    if (race==personToMeet.race) {
-      Sim.instance().similarityWriter.println(
-          Sim.instance().getCurrYearNum()+","+race+","+similarity+","+friends);
-    } else {
-      Sim.instance().similarityWriter.println(
-          Sim.instance().getCurrYearNum()+",MIXED,"+similarity+","+friends);
+    double similarity = similarityTo(personToMeet);
+    boolean friends = becomeFriends(similarity);
+    commitMeeting(personToMeet, similarity, friends);
+  }
+
+  /**
+   * Carry out this person's meeting with the person passed, whose
+   * similarity and whether they will become friends have already been
+   * determined. If the two have become friends since that was determined
+   * (which can only happen in a {@link PersonPhase} month), this is a tickle
+   * instead. */
+  void commitMeeting(Person personToMeet, double similarity,
+      boolean friends){
+    if(friendsWith(personToMeet)){
+      tickle(personToMeet);
+      return;
     }
-    Sim.instance().similarityWriter.flush();
+    sim.similarityLog.log(sim.getCurrYearNum(), this,
+        personToMeet, similarity, friends);
     //if they become friends, add their edge to the network
     //and reset when they met
     if(friends){
         makeFriends(personToMeet);
-        Sim.instance().encounterWriter.println(
-            Sim.instance().getCurrYearNum()+","+id+","+personToMeet.id+
-                ",meetFriends");
+        sim.encounterLog.log(sim.getCurrYearNum(), this,
+            personToMeet, EncounterLog.Type.MEET_FRIENDS);
     } else {
-        Sim.instance().encounterWriter.println(
-            Sim.instance().getCurrYearNum()+","+id+","+personToMeet.id+
-                ",meetNoFriends");
+        sim.encounterLog.log(sim.getCurrYearNum(), this,
+            personToMeet, EncounterLog.Type.MEET_NO_FRIENDS);
     }
-    Sim.instance().encounterWriter.flush();
   }
 
   /**
@@ -478,14 +374,12 @@ public class Person implements Steppable {
    * presumed to <i>already</i> be friends with the person. ("Tickle"
    * essentially means "refresh their friendship.") */
   public void tickle(Person person){
-    Sim.instance().encounterWriter.println(
-        Sim.instance().getCurrYearNum()+","+id+","+person.id+",tickle");
-    Sim.instance().encounterWriter.flush();
+    sim.encounterLog.log(sim.getCurrYearNum(), this, person,
+        EncounterLog.Type.TICKLE);
 
     //reset when the two last encountered each other
-    int tickleID = person.getID( );
-    refreshLastTickleTime(tickleID);
-    person.refreshLastTickleTime(id);
+    sim.decayScheduler.tickle(friendships.get(person.id),
+        sim.decayScheduler.currentMonth());
   }
   
   /**
@@ -494,81 +388,125 @@ public class Person implements Steppable {
    * and so on. Choose a person from the pool at random. If the two are
    * already friends, tickle the friendship. Otherwise, meet this person. Do
    * this until we have encountered the appropriate number of friends.*/
-  private void encounter(int number, Bag pool){
+  void encounter(int number, Population pool,
+      Proposals proposals){
     if(pool.size( ) < number){
       number = pool.size( );
     }
     for(int i=0; i<number; i++){
       Person personToMeet;
       do{
-        personToMeet = (Person) 
-            pool.get(Sim.instance( ).random.nextInt(pool.size( )));
+        personToMeet = pool.getRandom(random);
       }while(personToMeet.id == id);
+      encounter(personToMeet, proposals);
+    }
+  }
+
+  /**
+   * Make this person encounter some number of other people who are members
+   * of one or more of their groups, just as {@link #encounter(int,
+   * Population, Proposals)} would with the union of those groups as the
+   * pool, but without ever building that union. */
+  private void encounterGroupmates(int number, GroupmateSampler sampler,
+      Proposals proposals){
+    int totalSize = 0;
+    int largest = 0;
+    for(int x = 0; x < groups.size( ); x++){
+      int size = groups.get(x).getSize( );
+      totalSize += size;
+      largest = Math.max(largest, size);
+    }
+    //We only need to know how many distinct groupmates there are if it's
+    //fewer than the number we'd meet (or too few to meet anyone.)
+    int needed = Math.max(number, 2);
+    int poolSize = largest >= needed ? needed :
+        sampler.countDistinct(groups, needed);
+    if(poolSize <= 1){
+      return;
+    }
+    if(poolSize < number){
+      number = poolSize;
+    }
+    for(int i=0; i<number; i++){
+      encounter(sampler.draw(groups, totalSize, this, random), proposals);
+    }
+  }
+
+  //Tickle or meet the person passed (or, if proposals is non-null, propose
+  //to; see PersonPhase.)
+  private void encounter(Person personToMeet, Proposals proposals){
+    if(proposals == null){
       if(friendsWith(personToMeet)){
         tickle(personToMeet);
       }else{
         meet(personToMeet);
       }
+    }else{
+      if(friendsWith(personToMeet)){
+        proposals.tickle(this, personToMeet);
+      }else{
+        double similarity = similarityTo(personToMeet);
+        proposals.meet(this, personToMeet, similarity,
+            becomeFriends(similarity));
+      }
     }
   }
+
+  //The month's encounters and drift, either acting immediately (if
+  //proposals is null) or only proposing.
+  private void act(GroupmateSampler sampler, Proposals proposals){
+    Population people = sim.getPeople( );
+    encounterGroupmates(params.numToMeetGroup, sampler, proposals);
+    //Encounter some number of people from the whole student body
+    if(people.size( ) > 1){
+        encounter(params.numToMeetPop, people, proposals);
+    }
+
+    personalityDrift(proposals);
+  }
+
+  /**
+   * Decide on this month's actions (as {@link #step(SimState)} would
+   * perform them), using the groupmate sampler passed, but only add them to
+   * the proposals passed rather than perform them. This changes no shared
+   * state, so many people can propose at once. (See {@link PersonPhase}.) */
+  void propose(GroupmateSampler sampler, Proposals proposals){
+    act(sampler, proposals);
+  }
+
+  /**
+   * Rebuild any of this person's lazily-computed caches that are out of
+   * date, so that {@link #propose(GroupmateSampler, Proposals)} only
+   * reads. */
+  void prepareToPropose(){
+    hobbies.normalizedOffset();
+  }
   
     /**
      * Make this person perform one month's actions. These include:
      * <ol>
-     * <li>Encounter {@link #NUM_TO_MEET_GROUP} other people who are members
-     * of one or more of their current groups.</li>
-     * <li>Encounter {@link #NUM_TO_MEET_POP} other people from the student
-     * body at large (who may or may not be members of their current
+     * <li>Encounter {@link Parameters#numToMeetGroup} other people who are
+     * members of one or more of their current groups.</li>
+     * <li>Encounter {@link Parameters#numToMeetPop} other people from the
+     * student body at large (who may or may not be members of their current
      * groups.)</li>
      * <li>Personality drift.</li>
-     * <li>Decay this user's existing friendships to reflect the passage of
-     * time.</li>
      * </ol>
-     * After this, the Person reschedules itself for the next month (or
-     * August, if it's coming up on summertime.)
-     * <p>Note that Persons only step during academic months.</p>
+     * (This user's existing friendships are decayed to reflect the passage
+     * of time by {@link DecayScheduler}, once everyone has stepped.)
+     * <p>Note that Persons only step during academic months, when the
+     * {@link PersonPhase} steps them.</p>
      */
     public void step(SimState state){
-        System.out.println("#### PERSON " + id + " (" +
-             state.schedule.getTime() + ")");
-        Bag peopleBag = Sim.peopleGraph.getAllNodes( );
-        if(!peopleBag.contains(this)){
-            return;
+        if(Log.enabled(Log.TRACE)){
+            Log.trace("#### PERSON " + id + " (" +
+                state.schedule.getTime() + ")");
         }
-        //Get a bag of all the people in the groups
-        Bag groupBag = getPeopleInGroups( );
-        if(groupBag.size( ) > 1){
-            encounter(NUM_TO_MEET_GROUP, groupBag);
-        }
-        //Get a bag of all the people and then encounter some number of those 
-        //people
-        if(peopleBag.size( ) > 1){
-            encounter(NUM_TO_MEET_POP, peopleBag);
-        }
-
-        personalityDrift( );
-        
-        //NOTE: Decay only matters if the people are friends- you can't decay a
-        //friendship that doesn't exist. So, the time they last met only
-        //matters if they are friends already or if they become friends this
-        //turn If they aren't already friends and if they don't become
-        //friends this turn, then -1 for last met is fine (unless we
-        //implement something where if two people meet enough times, they
-        //become friends by brute force)
-        //Now we want to see if any of the friendships have decayed
-        decay( );
-
-        if (Sim.instance().nextMonthInAcademicYear()) {
-            // It's not the end of the academic year yet. Run again
-            // next month.
-            Sim.instance( ).schedule.scheduleOnceIn(1, this);
-        } else {
-            if (!Sim.instance().isLastYearOfSim()) {
-                // It's summer break! Sleep for the summer.
-                Sim.instance( ).schedule.scheduleOnceIn(
-                        Sim.NUM_MONTHS_IN_SUMMER + 1, this);
-            }
+        if(!active){
+            //We've left the university.
+            return;
         }
+        act(sim.groupmateSampler, null);
     }
 
     public static void printHeaderToFile(BufferedWriter writer) {
@@ -578,15 +516,48 @@ public class Person implements Steppable {
             e.printStackTrace();
         }
     }
+    /**
+     * Open (or continue) a columnar file, among the output files passed,
+     * of the same information {@link #printToFile(BufferedWriter)} writes.
+     * (See {@link ColumnarWriter}.)
+     */
+    static ColumnarWriter openColumnarFile(OutputFiles files,
+        String filename) throws IOException {
+        return new ColumnarWriter(files, filename,
+            new String[] { "period", "id", "numFriends", "numGroups", "race",
+                "gender", "alienation", "yearInSchool" },
+            new byte[] { ColumnarWriter.INT, ColumnarWriter.INT,
+                ColumnarWriter.INT, ColumnarWriter.INT, ColumnarWriter.FACTOR,
+                ColumnarWriter.FACTOR, ColumnarWriter.DOUBLE,
+                ColumnarWriter.INT },
+            new String[][] { null, null, null, null, { "WHITE", "MINORITY" },
+                { "MALE", "FEMALE" }, null, null });
+    }
+
+    /**
+     * Add a row of diagnostic and statistical information about this Person
+     * to the columnar file passed. (See {@link #openColumnarFile(OutputFiles, String)}.)
+     */
+    void printToFile(ColumnarWriter w) throws IOException {
+        w.setInt(0, sim.getCurrYearNum());
+        w.setInt(1, id);
+        w.setInt(2, sim.peopleGraph.getDegree(this));
+        w.setInt(3, groups.size( ));
+        w.setLevel(4, race.ordinal());
+        w.setLevel(5, gender.ordinal());
+        w.setDouble(6, this.getAlienation( ));
+        w.setInt(7, year);
+        w.endRow();
+    }
+
     /**
      * Output diagnostic and statistical information about this Person to
      * the writer passed.
      */
     public void printToFile(BufferedWriter writer) {
-        String message = Sim.instance().getCurrYearNum() + "," + 
+        String message = sim.getCurrYearNum() + "," + 
             Integer.toString(id) + ",";
-        Bag b = Sim.peopleGraph.getEdgesIn(this);
-        int numFriends = b.size( );
+        int numFriends = sim.peopleGraph.getDegree(this);
         message = message + Integer.toString(numFriends) + ","
             + Integer.toString(groups.size( )) + "," + race + "," + gender + ","
             + this.getAlienation( ) +  "," + year + "\n";
@@ -603,16 +574,16 @@ public class Person implements Steppable {
      */
     public void printFriendsToFile(BufferedWriter writer) {
         String message = "";
-        Bag b = Sim.peopleGraph.getEdgesIn(this);
-        for (int i=0; i<b.size( ); i++) {
-        	Person friend = (Person) ((Edge)b.get(i)).getOtherNode(this);
+        int numFriends = sim.peopleGraph.getDegree(this);
+        for (int i=0; i<numFriends; i++) {
+        	Person friend = sim.peopleGraph.getFriend(this, i);
         	//We only document the friendship if the other person's id is greater
         	//otherwise, the friendship edge was already documented
-        	message = message + Sim.instance().getCurrYearNum() + "," +
+        	message = message + sim.getCurrYearNum() + "," +
                 this.getID( ) + "," + friend.getID( ) + "\n";
         }
         //We'll only try to write if there are actually friends
-        if(b.size( ) > 0){
+        if(numFriends > 0){
         	try {
         		writer.write(message);
         	} catch (Exception e) {
@@ -621,32 +592,29 @@ public class Person implements Steppable {
         }
     }
 
-    private boolean friendsWith(Person other) {
-      Bag b = Sim.peopleGraph.getEdgesIn(this);
-        for (int i=0; i<b.size(); i++) {
-            Person otherSideOfThisEdge = 
-                (Person) ((Edge)b.get(i)).getOtherNode(this);
-            if (other.id == otherSideOfThisEdge.id) {
-                return true;
-            }
+    /**
+     * Add a row for each of this Person's friendships to the columnar file
+     * passed. (See {@link
+     * Sim#openColumnarFriendshipsFile(OutputFiles, String)}.)
+     */
+    void printFriendsToFile(ColumnarWriter w) throws IOException {
+        int numFriends = sim.peopleGraph.getDegree(this);
+        for (int i=0; i<numFriends; i++) {
+            w.setInt(0, sim.getCurrYearNum());
+            w.setInt(1, id);
+            w.setInt(2, sim.peopleGraph.getFriend(this, i).getID( ));
+            w.endRow();
         }
-        return false;
     }
-    
-    private boolean met(Person other){
-      int otherID = other.getID( );
-      if(lastTickleTime.get(otherID) == -1){
-        return false;
-      }else{
-        return true;
-      }
+
+    private boolean friendsWith(Person other) {
+        return friendships.containsKey(other.id);
     }
 
     public void printPreferencesToFile(BufferedWriter writer) {
-        String message = Sim.instance().getCurrYearNum() + "," + 
+        String message = sim.getCurrYearNum() + "," + 
             this.getID( ) + ",";
-        Bag b = Sim.peopleGraph.getEdgesIn(this);
-        int numFriends = b.size( );
+        int numFriends = sim.peopleGraph.getDegree(this);
         message = message + numFriends + "," + race + "," + this.getAlienation() + "," + year + "\n";
         try {
           writer.write(message);
@@ -659,15 +627,15 @@ public class Person implements Steppable {
         double prefAverage=0;
         double hobbyAverage=0;
         String message = "";
-        for(int x = 0; x < NUM_PREFERENCES; x++){
-          prefAverage += Math.abs(preferences.get(x) - preferencesYear0.get(x));
+        for(int x = 0; x < params.numPreferences; x++){
+          prefAverage += Math.abs(getPreference(x) - preferencesYear0[x]);
         }
-        prefAverage=prefAverage/NUM_PREFERENCES;
-        for(int x = 0; x < NUM_HOBBIES; x++){
-          hobbyAverage += Math.abs(hobbies.get(x) - hobbiesYear0.get(x));
+        prefAverage=prefAverage/params.numPreferences;
+        for(int x = 0; x < params.numHobbies; x++){
+          hobbyAverage += Math.abs(hobbies.getRaw(x) - hobbiesYear0[x]);
         }
-        hobbyAverage=hobbyAverage/NUM_HOBBIES;
-        message = message + getID() + " " + extroversion + " " + Sim.peopleGraph.getEdgesIn(this).size() + " " + groups.size() + " " + hobbyAverage + " " + prefAverage + "\n";
+        hobbyAverage=hobbyAverage/params.numHobbies;
+        message = message + getID() + " " + extroversion + " " + sim.peopleGraph.getDegree(this) + " " + groups.size() + " " + hobbyAverage + " " + prefAverage + "\n";
         try {
           writer.write(message);
         } catch (Exception e) {
@@ -676,14 +644,14 @@ public class Person implements Steppable {
     }
 
     public String toString() {
-        Bag b = Sim.peopleGraph.getEdgesIn(this);
-        if (b.size() == 0) {
+        int numFriends = sim.peopleGraph.getDegree(this);
+        if (numFriends == 0) {
             return "Person " + id + " (lonely with no friends)";
         }
         String retval = "Person " + id + " (friends with ";
-        for (int i=0; i<b.size(); i++) {
-            retval += ((Person)(((Edge)b.get(i)).getOtherNode(this))).id;
-            if (i == b.size()-1) {
+        for (int i=0; i<numFriends; i++) {
+            retval += sim.peopleGraph.getFriend(this, i).id;
+            if (i == numFriends-1) {
                 retval += ")";
             } else {
                 retval += ",";
@@ -692,6 +660,18 @@ public class Person implements Steppable {
         return retval;
     }
     
+    // This person's row in sim.attributes, which also indexes them in
+    // sim.peopleGraph. (-1 once they have left the university.)
+    /** Returns false if this person has left the university (graduated or
+     * dropped out), and true otherwise. */
+    public boolean isActive( ){
+        return active;
+    }
+
+    int getRow( ){
+      return row;
+    }
+
     public int getID( ){
       return id;
     }
@@ -709,16 +689,23 @@ public class Person implements Steppable {
   }
   
   void joinGroup(Group group){
+    groupPositions.put(group.getID( ), groups.size( ));
     groups.add(group);
   }
   
+  /** Returns the number of groups this person is a member of. */
+  int getNumGroups( ){
+    return groups.size( );
+  }
+
+  /** Returns the group at the position passed in this person's list of
+   * groups. */
+  Group getGroup(int x){
+    return groups.get(x);
+  }
+
   boolean isStudentInGroup(Group group){
-    for(int x = 0; x<groups.size( ); x++){
-      if(groups.get(x).getID( ) == group.getID( )){
-        return true;
-      }
-    }
-    return false;
+    return groupPositions.containsKey(group.getID( ));
   }
     
     /**
@@ -731,14 +718,15 @@ public class Person implements Steppable {
         // even it out by removing one.
     }
 
-    // for doubles
-    private double attrCounter(int num, ArrayList<Double> attr1, 
-        ArrayList<Double> attr2){
+    // for doubles; compares the num attributes starting at offset1 in the
+    // store with the num attributes starting at offset2
+    private static double attrCounter(int num, double[] values, int offset1,
+        int offset2){
     	
     	double dissimilarity = 0.0;
     	
     	for(int i = 0; i < num; i++){
-    		dissimilarity += Math.abs(attr1.get(i)-attr2.get(i));
+    		dissimilarity += Math.abs(values[offset1+i]-values[offset2+i]);
     	}
 
     	//return the similarity rating
@@ -751,19 +739,23 @@ public class Person implements Steppable {
     public double similarityTo(Person other) {
       double similarity = 0.0;
       
+      AttributeStore store = sim.attributes;
+      //(Get these first, since they may rebuild the normalized hobbies.)
+      int normalK3This = hobbies.normalizedOffset();
+      int normalK3Other = other.hobbies.normalizedOffset();
+      double[] values = store.values();
+
       //Kind 1: Constant
-      double constantCount = attrCounter(CONSTANT_ATTRIBUTE_POOL_SIZE,
-        constantAttrs, other.constantAttrs);
+      double constantCount = attrCounter(params.constantAttributePoolSize,
+        values, store.constantOffset(row), store.constantOffset(other.row));
       
       //Kind 2: Preferences
-      double prefCount = attrCounter(PREFERENCE_POOL_SIZE, preferences, 
-        other.preferences);
+      double prefCount = attrCounter(params.preferencePoolSize, values,
+        store.preferenceOffset(row), store.preferenceOffset(other.row));
       
       //Kind 3: Hobbies
-      ArrayList<Double> normalK3This = normalize(hobbies);
-      ArrayList<Double> normalK3Other = normalize(other.hobbies);
-      double hobbyCount = attrCounter(HOBBY_POOL_SIZE, normalK3This, 
-        normalK3Other);
+      double hobbyCount = attrCounter(params.hobbyPoolSize, values,
+        normalK3This, normalK3Other);
       
         //Do they have the same race?
         int raceCount = 0;
@@ -778,19 +770,20 @@ public class Person implements Steppable {
         //Calculate their similarity rating, taking importance of each 
         //category (the weight) into account
       similarity = (constantCount * CONST_WEIGHT) + (prefCount * PREF_WEIGHT)
-          + (hobbyCount * HOBBY_WEIGHT) + (raceCount * RACE_WEIGHT) 
+          + (hobbyCount * HOBBY_WEIGHT) + (raceCount * params.raceWeight) 
           + (genCount * GEN_WEIGHT);
-      double maxRating = (CONSTANT_ATTRIBUTE_POOL_SIZE * CONST_WEIGHT) 
-          + (PREFERENCE_POOL_SIZE * PREF_WEIGHT)
-          + (HOBBY_POOL_SIZE * HOBBY_WEIGHT) + RACE_WEIGHT + GEN_WEIGHT;
+      double maxRating = (params.constantAttributePoolSize * CONST_WEIGHT) 
+          + (params.preferencePoolSize * PREF_WEIGHT)
+          + (params.hobbyPoolSize * HOBBY_WEIGHT) + params.raceWeight
+          + GEN_WEIGHT;
       return similarity / maxRating;
     
     }
     
   private boolean becomeFriends(double similarity){
     double acceptProb = 
-        FRIENDSHIP_COEFFICIENT * similarity + FRIENDSHIP_INTERCEPT;
-    double friendProb = Sim.instance( ).random.nextDouble( );
+        params.friendshipCoefficient * similarity + params.friendshipIntercept;
+    double friendProb = random.nextDouble( );
     if(friendProb <= acceptProb){
       return true;
     }else{
@@ -798,16 +791,12 @@ public class Person implements Steppable {
     }
   }
   
-  private ArrayList<Double> normalize(ArrayList<Double> attr){
-    ArrayList<Double> normal = new ArrayList<Double>(
-        Collections.nCopies(HOBBY_POOL_SIZE, 0.0));
-    double sum = 0.0;
-    for(int i=0; i<HOBBY_POOL_SIZE; i++){
-        sum = sum + attr.get(i);
-      }
-    for(int i=0; i<HOBBY_POOL_SIZE; i++){
-        double valThis = attr.get(i)/sum;
-        normal.set(i,valThis);
+  private ArrayList<Double> normalize(){
+    ArrayList<Double> normal = new ArrayList<Double>(params.hobbyPoolSize);
+    int offset = hobbies.normalizedOffset();
+    double[] values = sim.attributes.values();
+    for(int i=0; i<params.hobbyPoolSize; i++){
+        normal.add(values[offset + i]);
       }
     return normal;
   }
@@ -815,8 +804,7 @@ public class Person implements Steppable {
   
   public double getAlienation( ){
 	  //Get the number of friends this person has
-	  Bag bIn = Sim.peopleGraph.getEdgesIn(this);
-	  int numFriends = bIn.size( );
+	  int numFriends = sim.peopleGraph.getDegree(this);
 	  //Find the percent of the population with which this person is friends
 	  //int totalPeople = Sim.getNumPeople( );
 	  double requiredNumFriends = 3.0;
@@ -833,49 +821,137 @@ public class Person implements Steppable {
   
   
   /** Returns a list of doubles, one for each of the {@link
-   * #HOBBY_POOL_SIZE} possible hobbies. This will indicate
+   * Parameters#hobbyPoolSize} possible hobbies. This will indicate
    * the degree to which the person possesses each of those attributes (0.0
    * = does not have that attribute at all.) */
   public ArrayList<Double> getHobbies(){
-    return normalize(hobbies);
+    return normalize();
+  }
+
+  /** Returns the (normalized) value of the hobby whose index is passed. (See
+   * {@link #getHobbies()}.) */
+  public double getHobby(int index){
+    return hobbies.get(index);
   }
   
   /** Returns a list of doubles, one for each of the {@link
-   * #PREFERENCE_POOL_SIZE} possible preferences. */
+   * Parameters#preferencePoolSize} possible preferences. (This is a copy; use
+   * {@link #setPreferenceValue(int,double)} to change a preference.) */
   public ArrayList<Double> getPreferences(){
+    ArrayList<Double> preferences = 
+        new ArrayList<Double>(params.preferencePoolSize);
+    for(int i=0; i<params.preferencePoolSize; i++){
+        preferences.add(getPreference(i));
+    }
     return preferences;
   }
 
+  // Add each of this person's preferences to the corresponding element of
+  // the array passed. (For computing group and peer averages without
+  // boxing.)
+  void addPreferencesTo(double[] totals){
+    double[] values = sim.attributes.values();
+    int offset = sim.attributes.preferenceOffset(row);
+    for(int i=0; i<params.preferencePoolSize; i++){
+        totals[i] += values[offset + i];
+    }
+  }
+
+  // Add each of this person's normalized hobbies to the corresponding
+  // element of the array passed.
+  void addHobbiesTo(double[] totals){
+    hobbies.addNormalizedTo(totals);
+  }
+
+  // The reverse of addPreferencesTo().
+  void subtractPreferencesFrom(double[] totals){
+    double[] values = sim.attributes.values();
+    int offset = sim.attributes.preferenceOffset(row);
+    for(int i=0; i<params.preferencePoolSize; i++){
+        totals[i] -= values[offset + i];
+    }
+  }
+
+  // The reverse of addHobbiesTo().
+  void subtractHobbiesFrom(double[] totals){
+    hobbies.subtractNormalizedFrom(totals);
+  }
+
+  /** Returns the value of the preference whose index is passed. */
+  public double getPreference(int index){
+    return sim.attributes.values()[
+        sim.attributes.preferenceOffset(row) + index];
+  }
+
   /** Sets the value of the preference whose index is passed to the value
    * passed. */
   public void setPreferenceValue(int index, double val){
-      preferences.set(index, val); 
+      setPreferenceValue(index, val, null);
+  }
+
+  /** Like {@link #setPreferenceValue(int, double)}, but if deferred isn't
+   * null, the changes to our groups' totals go through it. (See {@link
+   * GroupPhase}.) */
+  void setPreferenceValue(int index, double val, DeferredTotals deferred){
+      int i = sim.attributes.preferenceOffset(row) + index;
+      double delta = val - sim.attributes.values()[i];
+      sim.attributes.values()[i] = val;
+      //Keep the totals of our groups up to date
+      for(int x = 0; x<groups.size(); x++){
+          if(deferred == null){
+              groups.get(x).memberPreferenceChanged(index, delta);
+          }else{
+              deferred.memberPreferenceChanged(groups.get(x), index, delta);
+          }
+      }
   }
 
   /** Sets the value of the hobby whose index is passed to the value passed.
    * Internally, this may have the side effect of adjusting the values of the
    * other hobbies so that their normalized sum continues to equal 1. */
   public void setHobbyValue(int index, double val){
+    setHobbyValue(index, val, null);
+  }
+
+  /** Like {@link #setHobbyValue(int, double)}, but if deferred isn't null,
+   * the changes to our groups' totals go through it. (See {@link
+   * GroupPhase}.) */
+  void setHobbyValue(int index, double val, DeferredTotals deferred){
     //this functions says I want the normalized value of attribute index to be
     //val
-    double sum = 0.0;
-    //Take the sum of all of the other non-normalized values
-    for(int i=0; i<HOBBY_POOL_SIZE; i++){ if(index != i){ sum = sum +
-    hobbies.get(i); } } double newNonNormalVal = (val * sum)/(1-val);
-    hobbies.set(index, newNonNormalVal); }
+    double oldSum = hobbies.sum();
+    double oldVal = hobbies.get(index);
+    hobbies.set(index, val);
+    if(!groups.isEmpty()){
+      //Every normalized value changed: the one at index directly, and the
+      //others by the change in the sum. Keep the totals of our groups up to
+      //date.
+      double scale = 1/hobbies.sum() - 1/oldSum;
+      double indexDelta = hobbies.get(index) - oldVal;
+      for(int x = 0; x<groups.size(); x++){
+        if(deferred == null){
+          groups.get(x).memberHobbiesChanged(hobbies, index, indexDelta,
+              scale);
+        }else{
+          deferred.memberHobbiesChanged(groups.get(x), hobbies, index,
+              indexDelta, scale);
+        }
+      }
+    }
+  }
 
 
     /**
      * Returns the union of all the students who are in at least one of
      * this student's groups.
      */
-  public Bag getPeopleInGroups( ){
+  public ArrayList<Person> getPeopleInGroups( ){
     boolean repeat = false;
-    Bag groupmates = new Bag();
+    ArrayList<Person> groupmates = new ArrayList<Person>();
     for(int x = 0; x < groups.size( ); x++){
       for(int y = 0; y < groups.get(x).getSize(); y++){
         for(int z = 0; z < groupmates.size(); z++){
-          if(groups.get(x).getPersonAtIndex(y).id == ((Person) groupmates.get(z)).id){
+          if(groups.get(x).getPersonAtIndex(y).id == groupmates.get(z).id){
             repeat = true;    //student is already in this bag, don't add again
           }
         }
@@ -894,13 +970,17 @@ public class Person implements Steppable {
      * edu.umw.cpsc.collegesim.Group#removeEveryoneFromGroup()}.
      */
     public void leaveGroup(Group g){
-        for(int x = 0; x<groups.size(); x++){
-          if(groups.get(x).getID( ) == g.getID( )){
-              //MONTY PYTHON'S HOLY GRAIL RIGHT HERE
-              groups.get(x).removeStudent(this);
-            groups.remove(x);
-          }
+        int x = groupPositions.remove(g.getID( ));
+        if(x == IntIntHashMap.NONE){
+          return;
+        }
+        //Fill the hole with our last group
+        Group last = groups.remove(groups.size( )-1);
+        if(x < groups.size( )){
+          groups.set(x, last);
+          groupPositions.put(last.getID( ), x);
         }
+        g.removeStudent(this);
       }
 
     /** Sets the school year (1=freshman, 2=sophomore, etc.) of this
@@ -909,17 +989,17 @@ public class Person implements Steppable {
     year = x;
     //store initial attributes
     if(year==1){
-      preferencesYear0=new ArrayList<Double>(preferences);
-      hobbiesYear0=new ArrayList<Double>(hobbies);
+      preferencesYear0=copyPreferences();
+      hobbiesYear0=copyRawHobbies();
     }else if(year==2){
-      preferencesYear1=new ArrayList<Double>(preferences);
-      hobbiesYear1=new ArrayList<Double>(hobbies);
+      preferencesYear1=copyPreferences();
+      hobbiesYear1=copyRawHobbies();
     }else if(year==3){
-      preferencesYear2=new ArrayList<Double>(preferences);
-      hobbiesYear2=new ArrayList<Double>(hobbies);
+      preferencesYear2=copyPreferences();
+      hobbiesYear2=copyRawHobbies();
     }else if(year==4){
-      preferencesYear3=new ArrayList<Double>(preferences);
-      hobbiesYear3=new ArrayList<Double>(hobbies);
+      preferencesYear3=copyPreferences();
+      hobbiesYear3=copyRawHobbies();
     }
   }
 
@@ -934,44 +1014,84 @@ public class Person implements Steppable {
      * performed). */
   public void incrementYear(){
     if(year==1){
-      preferencesYear1=new ArrayList<Double>(preferences);
-      hobbiesYear1=new ArrayList<Double>(hobbies);
+      preferencesYear1=copyPreferences();
+      hobbiesYear1=copyRawHobbies();
     }else if(year==2){
-      preferencesYear2=new ArrayList<Double>(preferences);
-      hobbiesYear2=new ArrayList<Double>(hobbies);
+      preferencesYear2=copyPreferences();
+      hobbiesYear2=copyRawHobbies();
     }else if(year==3){
-      preferencesYear3=new ArrayList<Double>(preferences);
-      hobbiesYear3=new ArrayList<Double>(hobbies);
+      preferencesYear3=copyPreferences();
+      hobbiesYear3=copyRawHobbies();
     }
     year++;
   }
 
+  private double[] copyPreferences(){
+    int offset = sim.attributes.preferenceOffset(row);
+    return Arrays.copyOfRange(sim.attributes.values(), offset,
+        offset + params.preferencePoolSize);
+  }
+
+  private double[] copyRawHobbies(){
+    return hobbies.copyRaw();
+  }
+
   public boolean hasFullData(){
-    if(preferencesYear0!=null&&preferencesYear1!=null&&preferencesYear3!=null&&preferences!=null&&hobbiesYear0!=null&&hobbiesYear1!=null&&hobbiesYear3!=null&&hobbies!=null){
+    if(preferencesYear0!=null&&preferencesYear1!=null&&preferencesYear3!=null&&row!=-1&&hobbiesYear0!=null&&hobbiesYear1!=null&&hobbiesYear3!=null){
       return true;
     }else{
       return false;
     }
   }
 
-    private void makeFriends(Person newFriend) {
-        Sim.peopleGraph.addEdge(this, newFriend, 1);
-        refreshLastTickleTime(newFriend.id);
-        newFriend.refreshLastTickleTime(id);
+    void makeFriends(Person newFriend) {
+        int handle = sim.peopleGraph.addEdge(this, newFriend);
+        sim.decayScheduler.add(handle, sim.decayScheduler.currentMonth());
+        friendships.put(newFriend.id, handle);
+        newFriend.friendships.put(id, handle);
     }
 
     void forceAddRandomOppRaceFriend() {
-        Bag peopleBag = Sim.peopleGraph.getAllNodes( );
+        Population people = sim.getPeople( );
         Person forcedFriend;
         do{
-          forcedFriend = (Person) 
-              peopleBag.get(Sim.instance( ).random.nextInt(peopleBag.size( )));
+          forcedFriend = 
+              people.getRandom(random);
         }while(forcedFriend.id == id  || 
             forcedFriend.race == race  ||
             friendsWith(forcedFriend));
         this.makeFriends(forcedFriend);
-        System.out.println("Student " + id + " (" + race + ") " +
-            "forced with student " + forcedFriend.id + " (" +
-            forcedFriend.race + ")");
+        if(Log.enabled(Log.DEBUG)){
+            Log.debug("Student " + id + " (" + race + ") " +
+                "forced with student " + forcedFriend.id + " (" +
+                forcedFriend.race + ")");
+        }
+    }
+
+    /**
+     * Save the list of this person's groups to the checkpoint passed. The
+     * {@link Sim} does this for everyone after saving every Person and
+     * Group, instead of each Person saving its own, since following groups
+     * to their members, and those members to their groups, and so on, would
+     * otherwise recurse through most of the population at once.
+     */
+    void writeGroups(ObjectOutputStream out) throws IOException {
+        out.writeObject(groups);
+    }
+
+    /** Restore the list saved by {@link #writeGroups}. */
+    @SuppressWarnings("unchecked")
+    void readGroups(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        groups = (ArrayList<Group>) in.readObject();
+    }
+
+    /**
+     * Start this person's random number stream over, derived from the
+     * simulation's (new) seed. (See {@link Sim#fork}.)
+     */
+    void reseed() {
+        random.setSeed(AgentRandom.streamSeed(sim.seed(), AgentRandom.PERSON,
+            id));
     }
 }
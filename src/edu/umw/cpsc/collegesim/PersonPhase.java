@@ -0,0 +1,154 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import sim.engine.*;
+
+/**
+ * Runs every student's month. {@link Sim} schedules this once, to repeat
+ * every month, in place of scheduling each {@link Person}; it does nothing
+ * during the summer.
+ * <p></p>
+ * If {@link Parameters#numThreads} is zero, each student steps in turn, in a
+ * random order (drawn afresh each month from the Sim's generator.)
+ * Otherwise, the students' months all happen at once, in parallel.
+ * <p></p>
+ * The parallel month is <b>bulk-synchronous</b>: first every student decides what
+ * they will do (whom they encounter, whether they would become friends with
+ * each of them, how their attributes drift) based on how things stood at
+ * the start of the month, without changing anything; then all of those
+ * decisions are carried out, one after another, in a fixed order. (See
+ * {@link Proposals} for how conflicting decisions are resolved.)
+ * <p></p>
+ * The deciding is split into chunks of {@link #CHUNK_SIZE} students, which
+ * are handed out to a {@link PhaseExecutor}'s threads. Each student draws
+ * random numbers from their own stream (see {@link AgentRandom}), and the
+ * chunks are committed in population order, so the results are the same
+ * no matter how many threads there are or how the chunks get scheduled.
+ * <p></p>
+ * Friendship decay is still done by {@link DecayScheduler} after the
+ * commit, as in the serial mode; its cost is only proportional to the
+ * number of friendships that actually expire.
+ */
+public class PersonPhase implements Steppable {
+
+    private static final long serialVersionUID = 1;
+
+    /**
+     * The number of students whose decisions make up one task. (This is
+     * fixed, rather than depending on the number of threads, so that the
+     * order of the commit doesn't either.)
+     */
+    static final int CHUNK_SIZE = 256;
+
+    private final Sim sim;
+    private transient PhaseExecutor executor;
+
+    // The per-thread scratch space for deciding.
+    private transient ThreadLocal<GroupmateSampler> samplers = newSamplers();
+
+    // The decisions of each chunk of students, reused from month to month.
+    private transient Proposals[] chunks = new Proposals[0];
+
+    // The serial order of the students.
+    private int[] order = new int[0];
+
+    /**
+     * Create a phase for the students of the simulation passed, that runs on
+     * the executor passed, or, if it is null, serially. */
+    PersonPhase(Sim sim, PhaseExecutor executor) {
+        this.sim = sim;
+        this.executor = executor;
+    }
+
+    /**
+     * Run on the executor passed from now on, or, if it is null, serially.
+     * (For a simulation restored from a checkpoint; see {@link Sim#fork}.)
+     */
+    void setExecutor(PhaseExecutor executor) {
+        this.executor = executor;
+    }
+
+    private static ThreadLocal<GroupmateSampler> newSamplers() {
+        return new ThreadLocal<GroupmateSampler>() {
+            protected GroupmateSampler initialValue() {
+                return new GroupmateSampler();
+            }
+        };
+    }
+
+    // The scratch space isn't saved in checkpoints (nor is the executor,
+    // which Sim.fork() supplies.)
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        samplers = newSamplers();
+        chunks = new Proposals[0];
+    }
+
+    /**
+     * Have every student carry out this month's actions, if this is an
+     * academic month.
+     */
+    public void step(SimState state) {
+        if (!sim.isAcademicMonth()) {
+            return;
+        }
+        final Population people = sim.getPeople();
+        int n = people.size();
+
+        if (executor == null) {
+            order = sim.randomOrder(order, n);
+            for (int i = 0; i < n; i++) {
+                people.get(order[i]).step(state);
+            }
+            return;
+        }
+
+        if (Log.enabled(Log.DEBUG)) {
+            Log.debug("#### PERSON PHASE (" + state.schedule.getTime() +
+                ") (" + n + " students, " + executor.getNumThreads() +
+                " threads)");
+        }
+
+        // Bring any lazily-built caches up to date now, so that deciding
+        // only ever reads shared state.
+        for (int i = 0; i < n; i++) {
+            people.get(i).prepareToPropose();
+        }
+
+        int numChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks.length < numChunks) {
+            Proposals[] more = new Proposals[numChunks];
+            System.arraycopy(chunks, 0, more, 0, chunks.length);
+            for (int c = chunks.length; c < numChunks; c++) {
+                more[c] = new Proposals();
+            }
+            chunks = more;
+        }
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int c = 0; c < numChunks; c++) {
+            final int lo = c * CHUNK_SIZE;
+            final int hi = Math.min(n, lo + CHUNK_SIZE);
+            final Proposals proposals = chunks[c];
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    GroupmateSampler sampler = samplers.get();
+                    for (int i = lo; i < hi; i++) {
+                        people.get(i).propose(sampler, proposals);
+                    }
+                    return null;
+                }
+            });
+        }
+        executor.runAll(tasks);
+
+        for (int c = 0; c < numChunks; c++) {
+            chunks[c].commit();
+        }
+    }
+}
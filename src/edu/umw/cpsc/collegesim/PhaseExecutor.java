@@ -0,0 +1,70 @@
+package edu.umw.cpsc.collegesim;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs batches of independent tasks for the parallel phases ({@link
+ * PersonPhase}, {@link GroupPhase}) on a shared pool of threads, and waits
+ * for each batch to finish. With one thread, tasks just run in turn on the
+ * caller's thread, and no pool is ever started.
+ */
+class PhaseExecutor {
+
+    private final int numThreads;
+    private ExecutorService pool;
+
+    PhaseExecutor(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Run every task passed, and return once they have all finished. If any
+     * of them throws, rethrows (one of) the exceptions as a
+     * RuntimeException.
+     */
+    void runAll(List<Callable<Object>> tasks) {
+        if (numThreads == 1 || tasks.size() == 1) {
+            for (int t = 0; t < tasks.size(); t++) {
+                try {
+                    tasks.get(t).call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return;
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(numThreads);
+        }
+        try {
+            List<Future<Object>> results = pool.invokeAll(tasks);
+            for (int t = 0; t < results.size(); t++) {
+                results.get(t).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Stop the pool of threads (if any). */
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
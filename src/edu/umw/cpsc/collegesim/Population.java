@@ -0,0 +1,108 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * The students currently enrolled in the university, in no particular
+ * order.
+ * <p></p>
+ * Students are packed into the first {@link #size()} <b>slots</b> of an
+ * array, and the registry remembers each student's slot (indexed by their
+ * row in {@link Sim#attributes}). So a student can be removed in O(1), by
+ * moving the student in the last slot into the vacated one, and a uniformly
+ * random student can be picked in O(1). A whole year's worth of graduates
+ * and dropouts can also be removed at once, in a single pass that keeps the
+ * remaining students in their existing order.
+ */
+public class Population implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    private static final int NONE = -1;
+
+    private Person[] people = new Person[1024];
+    private int size;
+
+    // Each student's slot in people, indexed by row.
+    private int[] slots = new int[1024];
+
+    /** Returns the number of students enrolled. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the student in the slot passed, from 0 to size()-1. */
+    public Person get(int slot) {
+        return people[slot];
+    }
+
+    /** Returns a uniformly random student. (There must be at least one.) */
+    public Person getRandom(MersenneTwisterFast random) {
+        return people[random.nextInt(size)];
+    }
+
+    /** Returns whether the student passed is enrolled. */
+    public boolean contains(Person p) {
+        int r = p.getRow();
+        return r >= 0 && r < slots.length && slots[r] != NONE &&
+            slots[r] < size && people[slots[r]] == p;
+    }
+
+    /** Enroll the student passed, who must not already be enrolled. */
+    void add(Person p) {
+        if (size == people.length) {
+            people = Arrays.copyOf(people, size * 2);
+        }
+        int r = p.getRow();
+        if (r >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(slots.length * 2, r + 1));
+        }
+        people[size] = p;
+        slots[r] = size;
+        size++;
+    }
+
+    /**
+     * Remove the student passed, by moving the student in the last slot into
+     * theirs. If the student is not enrolled, does nothing.
+     */
+    void remove(Person p) {
+        if (!contains(p)) {
+            return;
+        }
+        int slot = slots[p.getRow()];
+        Person last = people[--size];
+        people[slot] = last;
+        slots[last.getRow()] = slot;
+        people[size] = null;
+        slots[p.getRow()] = NONE;
+    }
+
+    /**
+     * Remove all the students passed (each of whom must be enrolled) in one
+     * compaction pass, leaving the rest in the same relative order.
+     */
+    void removeAll(List<Person> departing) {
+        if (departing.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < departing.size(); i++) {
+            slots[departing.get(i).getRow()] = NONE;
+        }
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Person p = people[i];
+            if (slots[p.getRow()] != NONE) {
+                people[kept] = p;
+                slots[p.getRow()] = kept;
+                kept++;
+            }
+        }
+        Arrays.fill(people, kept, size, null);
+        size = kept;
+    }
+}
@@ -0,0 +1,116 @@
+package edu.umw.cpsc.collegesim;
+
+import java.util.Arrays;
+
+/**
+ * A list of the changes that some students have decided to make in a month,
+ * recorded (rather than made) while everyone decides in parallel, and then
+ * made all at once, in order, by {@link #commit()}. (See {@link
+ * PersonPhase}.)
+ */
+class Proposals {
+
+    // The kinds of proposal.
+    static final byte TICKLE = 0;
+    static final byte MEET = 1;
+    static final byte PREFERENCE_DRIFT = 2;
+    static final byte HOBBY_DRIFT = 3;
+
+    // One entry per proposal. For TICKLE and MEET, other is the student
+    // encountered, and for MEET, value is their similarity and flag says
+    // whether they decided to become friends. For the drifts, index is the
+    // attribute and value is the increment.
+    private byte[] kinds = new byte[256];
+    private Person[] subjects = new Person[256];
+    private Person[] others = new Person[256];
+    private int[] indices = new int[256];
+    private double[] values = new double[256];
+    private boolean[] flags = new boolean[256];
+    private int size;
+
+    /** Propose that the first student tickle their friendship with the
+     * second. */
+    void tickle(Person subject, Person friend) {
+        int i = add(TICKLE, subject);
+        others[i] = friend;
+    }
+
+    /**
+     * Propose that the first student meet the second, having found them to
+     * have the similarity passed, and having decided whether they will
+     * become friends.
+     */
+    void meet(Person subject, Person other, double similarity,
+        boolean friends) {
+        int i = add(MEET, subject);
+        others[i] = other;
+        values[i] = similarity;
+        flags[i] = friends;
+    }
+
+    /** Propose that the student passed change a preference by the increment
+     * passed. */
+    void preferenceDrift(Person subject, int index, double increment) {
+        int i = add(PREFERENCE_DRIFT, subject);
+        indices[i] = index;
+        values[i] = increment;
+    }
+
+    /** Propose that the student passed change a hobby by the increment
+     * passed. */
+    void hobbyDrift(Person subject, int index, double increment) {
+        int i = add(HOBBY_DRIFT, subject);
+        indices[i] = index;
+        values[i] = increment;
+    }
+
+    /**
+     * Make every change proposed, in the order they were proposed, and
+     * clear the list.
+     * <p></p>
+     * Since everyone decided based on how things stood at the start of the
+     * month, a proposal can conflict with an earlier one: two students who
+     * each decided to meet the other, or to meet a third student twice. The
+     * first such meeting to be committed happens as decided; any later one
+     * finds the two already friends, and becomes a tickle instead.
+     */
+    void commit() {
+        for (int i = 0; i < size; i++) {
+            Person subject = subjects[i];
+            switch (kinds[i]) {
+                case TICKLE:
+                    subject.tickle(others[i]);
+                    break;
+                case MEET:
+                    subject.commitMeeting(others[i], values[i], flags[i]);
+                    break;
+                case PREFERENCE_DRIFT:
+                    subject.setPreferenceValue(indices[i],
+                        subject.getPreference(indices[i]) + values[i]);
+                    break;
+                case HOBBY_DRIFT:
+                    subject.setHobbyValue(indices[i],
+                        subject.getHobby(indices[i]) + values[i]);
+                    break;
+            }
+        }
+        Arrays.fill(subjects, 0, size, null);
+        Arrays.fill(others, 0, size, null);
+        size = 0;
+    }
+
+    private int add(byte kind, Person subject) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            subjects = Arrays.copyOf(subjects, capacity);
+            others = Arrays.copyOf(others, capacity);
+            indices = Arrays.copyOf(indices, capacity);
+            values = Arrays.copyOf(values, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        kinds[size] = kind;
+        subjects[size] = subject;
+        return size++;
+    }
+}
@@ -0,0 +1,237 @@
+package edu.umw.cpsc.collegesim;
+
+import java.util.Arrays;
+
+/**
+ * Summary statistics of a stream of numbers, updated one number at a time in
+ * constant memory: the count, mean, variance, minimum, maximum, and
+ * estimates of the {@link #QUANTILES}. (See {@link SweepRunner}, which keeps
+ * one of these for each statistic of each year, across replicates.)
+ * <p></p>
+ * The mean and variance use Welford's method, which doesn't lose precision
+ * the way summing squares does. Each quantile is estimated with the
+ * P-squared algorithm of Jain and Chlamtac (1985), which keeps five markers
+ * whose heights are adjusted (by piecewise-parabolic interpolation) as
+ * numbers arrive. Since P-squared is rough for short streams (and sweeps
+ * typically have tens of replicates), the first {@link #EXACT_LIMIT} numbers
+ * are also kept, and until there are more than that, the quantiles are
+ * computed exactly from them instead.
+ * <p></p>
+ * NaNs (<i>e.g.</i>, the mean number of friends of a race with no students)
+ * are not counted. The results depend on the order the numbers are added
+ * in.
+ */
+class RunningStatistics {
+
+    /** The quantiles estimated, in order. */
+    static final double[] QUANTILES = { .05, .25, .5, .75, .95 };
+
+    /** How many numbers are kept for exact quantiles. */
+    static final int EXACT_LIMIT = 1000;
+
+    private long count;
+    private double mean;
+    private double m2;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    private final Quantile[] quantiles = new Quantile[QUANTILES.length];
+
+    // The first EXACT_LIMIT numbers (in order, once sorted is true.)
+    private double[] values = new double[16];
+    private boolean sorted = true;
+
+    RunningStatistics() {
+        for (int i = 0; i < QUANTILES.length; i++) {
+            quantiles[i] = new Quantile(QUANTILES[i]);
+        }
+    }
+
+    /** Add the number passed to the stream (unless it is NaN.) */
+    void add(double x) {
+        if (Double.isNaN(x)) {
+            return;
+        }
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+        if (count == 1 || x < min) {
+            min = x;
+        }
+        if (count == 1 || x > max) {
+            max = x;
+        }
+        for (int i = 0; i < quantiles.length; i++) {
+            quantiles[i].add(x);
+        }
+        if (count <= EXACT_LIMIT) {
+            if (count > values.length) {
+                values = Arrays.copyOf(values,
+                    Math.min(values.length * 2, EXACT_LIMIT));
+            }
+            values[(int) count - 1] = x;
+            sorted = false;
+        } else {
+            values = null;
+        }
+    }
+
+    /** Returns how many numbers have been added. */
+    long getCount() {
+        return count;
+    }
+
+    /** Returns the mean of the numbers, or NaN if there are none. */
+    double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /** Returns the sample variance of the numbers, or NaN if there are
+     * fewer than two. */
+    double getVariance() {
+        return count < 2 ? Double.NaN : m2 / (count - 1);
+    }
+
+    /** Returns the sample standard deviation of the numbers, or NaN if there
+     * are fewer than two. */
+    double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /** Returns the smallest number, or NaN if there are none. */
+    double getMin() {
+        return min;
+    }
+
+    /** Returns the largest number, or NaN if there are none. */
+    double getMax() {
+        return max;
+    }
+
+    /** Returns QUANTILES[i] (or, beyond {@link #EXACT_LIMIT} numbers, its
+     * estimate), or NaN if there are no numbers. */
+    double getQuantile(int i) {
+        if (values == null) {
+            return quantiles[i].get();
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (!sorted) {
+            Arrays.sort(values, 0, (int) count);
+            sorted = true;
+        }
+        return interpolate(values, (int) count, QUANTILES[i]);
+    }
+
+    // The p quantile of the first n (sorted) numbers passed, interpolating
+    // linearly between them.
+    private static double interpolate(double[] sorted, int n, double p) {
+        double h = p * (n - 1);
+        int lo = (int) Math.floor(h);
+        int hi = Math.min(lo + 1, n - 1);
+        return sorted[lo] + (h - lo) * (sorted[hi] - sorted[lo]);
+    }
+
+    /** A P-squared estimator of one quantile. */
+    private static class Quantile {
+
+        private final double p;
+
+        // The marker heights, their actual (1-based) positions, their
+        // desired positions, and how much each desired position grows per
+        // number.
+        private final double[] q = new double[5];
+        private final int[] n = new int[5];
+        private final double[] desired = new double[5];
+        private final double[] increments;
+
+        private int count;
+
+        Quantile(double p) {
+            this.p = p;
+            increments = new double[] { 0, p / 2, p, (1 + p) / 2, 1 };
+        }
+
+        void add(double x) {
+            if (count < 5) {
+                // Until there are five numbers, just keep them, in order.
+                int i = count++;
+                while (i > 0 && q[i - 1] > x) {
+                    q[i] = q[i - 1];
+                    i--;
+                }
+                q[i] = x;
+                if (count == 5) {
+                    for (int m = 0; m < 5; m++) {
+                        n[m] = m + 1;
+                    }
+                    desired[0] = 1;
+                    desired[1] = 1 + 2 * p;
+                    desired[2] = 1 + 4 * p;
+                    desired[3] = 3 + 2 * p;
+                    desired[4] = 5;
+                }
+                return;
+            }
+            count++;
+
+            // Find the cell the number falls in, stretching the ends if it's
+            // a new extreme.
+            int k;
+            if (x < q[0]) {
+                q[0] = x;
+                k = 0;
+            } else if (x >= q[4]) {
+                q[4] = x;
+                k = 3;
+            } else {
+                k = 0;
+                while (x >= q[k + 1]) {
+                    k++;
+                }
+            }
+            for (int m = k + 1; m < 5; m++) {
+                n[m]++;
+            }
+            for (int m = 0; m < 5; m++) {
+                desired[m] += increments[m];
+            }
+
+            // Move the middle markers towards their desired positions.
+            for (int m = 1; m <= 3; m++) {
+                double d = desired[m] - n[m];
+                if ((d >= 1 && n[m + 1] - n[m] > 1) ||
+                    (d <= -1 && n[m - 1] - n[m] < -1)) {
+                    int s = d > 0 ? 1 : -1;
+                    double h = parabolic(m, s);
+                    if (q[m - 1] < h && h < q[m + 1]) {
+                        q[m] = h;
+                    } else {
+                        q[m] += s * (q[m + s] - q[m]) / (n[m + s] - n[m]);
+                    }
+                    n[m] += s;
+                }
+            }
+        }
+
+        private double parabolic(int m, int s) {
+            return q[m] + s / (double) (n[m + 1] - n[m - 1]) *
+                ((n[m] - n[m - 1] + s) * (q[m + 1] - q[m]) /
+                    (n[m + 1] - n[m]) +
+                 (n[m + 1] - n[m] - s) * (q[m] - q[m - 1]) /
+                    (n[m] - n[m - 1]));
+        }
+
+        double get() {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            if (count < 5) {
+                return interpolate(q, count, p);
+            }
+            return q[2];
+        }
+    }
+}
@@ -1,219 +1,320 @@
 package edu.umw.cpsc.collegesim;
 import sim.engine.*;
 import sim.util.*;
-import sim.field.network.*;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 
-/** The top-level singleton simulation class, with main(). 
+/** The top-level simulation class, with main(). 
  * <p></p>
  * Purpose in life:
  * <ol>
- * <li>At start of simulation, create {@link #INIT_NUM_PEOPLE} people and
- * {@link #INIT_NUM_GROUPS} groups. Schedule them all to run, and
+ * <li>At start of simulation, create {@link Parameters#initNumPeople} people
+ * and {@link Parameters#initNumGroups} groups. Schedule them all to run, and
  * ourselves.</li>
  * <li>Each August, increment everyone's year, enroll the new freshman class,
  * create new groups, and schedule all these.</li>
  * <li>Each May, dump year-end statistics, graduate and/or dropout students
  * (based on their alienation). (And remove random groups?).</li>
  * </ol>
+ * Everything about a run -- its {@link Parameters}, its students, groups and
+ * friendships, and its output files -- belongs to its Sim object, and every
+ * {@link Person} and {@link Group} knows which Sim it belongs to. So any
+ * number of simulations can run in the same process (on different threads,
+ * say), as long as they have different SIMTAGs.
+ * <p></p>
+ * With {@link Parameters#checkpointInterval} set, a checkpoint of the whole
+ * simulation -- every student, group, and friendship, when each friendship
+ * was last tickled, every random number generator, and how far each output
+ * file had got -- is written at the end of May to
+ * <code>checkpoint<i>SIMTAG</i>_<i>YEAR</i>.ckpt</code> (a gzipped MASON
+ * checkpoint.) Any number of runs can then be forked from it, with
+ * different settings, without repeating the years before it. (See {@link
+ * #fork}.) Similarly, with {@link Parameters#burnInYears} and a {@link
+ * WarmStartCache}, runs that share a burn-in load its end state instead of
+ * simulating it again. (See {@link #startAfterBurnIn}.)
  */
 public class Sim extends SimState implements Steppable{
 
-    /** 
-     * The random number seed for this simulation.
-     */
-    public static long SEED;
+    private static final long serialVersionUID = 1;
+
+    // The settings of this run.
+    final Parameters params;
 
     /**
      * A graph where each node is a student and each edge is a friendship 
      * between those students. It is undirected. */
-    public static Network peopleGraph = new Network(false);
+    public final FriendshipGraph peopleGraph = new FriendshipGraph();
 
     /**
-     * A hashtag identifying the current run of the simulation.
-     */
-    public static long SIMTAG;
+     * The constant attributes, preferences, and hobbies of every student,
+     * stored contiguously. (See {@link AttributeStore}.) */
+    final AttributeStore attributes;
 
     /**
-     * The number of people, of random year-in-college (fresh, soph, etc.)
-     * that the simulation will begin with. */
-    public static int INIT_NUM_PEOPLE;
+     * Tracks when each friendship was last tickled, and decays those that
+     * have gone too long without. (See {@link DecayScheduler}.) */
+    final DecayScheduler decayScheduler;
+
+    public static final int NUM_MONTHS_IN_ACADEMIC_YEAR = 9;
+    public static final int NUM_MONTHS_IN_SUMMER = 3;
+    public static final int NUM_MONTHS_IN_YEAR = NUM_MONTHS_IN_ACADEMIC_YEAR +
+        NUM_MONTHS_IN_SUMMER;
 
+    // The list of every group in the entire simulation. 
+    private ArrayList<Group> allGroups = new ArrayList<Group>();
+    
+    // Every student currently in the simulation.
+    private Population peopleList = new Population();
 
-    /**
-     * The number of groups, with random initial membership, that the
-     * simulation will begin with. */
-    public static int INIT_NUM_GROUPS;
+    // Hand out consecutive unique numbers to new people and groups.
+    private int nextPersonId = 0;
+    private int nextGroupId = 0;
 
+    // Scratch space for Persons stepping serially. (See GroupmateSampler.)
+    transient GroupmateSampler groupmateSampler = new GroupmateSampler();
 
-    /**
-     * The number of newly enrolling freshmen each year.     */
-    public static int NUM_FRESHMEN_ENROLLING_PER_YEAR;
+    // Where the output files go. (See OutputFiles.)
+    transient OutputFiles outputs;
+
+    private transient BufferedWriter outWriter;
+    private transient BufferedWriter FoutWriter;
+    private transient BufferedWriter PrefoutWriter;
+    private transient PrintWriter groupWriter;
 
+    // Run the Persons' and Groups' months. (The executor is only used if
+    // params.numThreads is positive.)
+    private transient PhaseExecutor phaseExecutor;
+    private PersonPhase personPhase;
+    private GroupPhase groupPhase;
+
+    // The repeating schedule entries of the Sim and the phases, to be
+    // stopped at the end of the simulation.
+    private ArrayList<Stoppable> steppers = new ArrayList<Stoppable>();
+
+    // Told about each year's end, if set. (See setYearEndObserver().)
+    private transient Steppable yearEndObserver;
 
     /**
-     * The number of new groups to be added each year.
-     */
-    public static int NUM_NEW_GROUPS_PER_YEAR;
-    
-    /** The coefficient (see also {@link #DROPOUT_INTERCEPT}) of a linear
-     * equation to transform alienation to probability of
-     * dropping out. If x is based on the alienation level,
-     * then y=mx+b, where m is the DROPOUT_RATE and b the
-     * DROPOUT_INTERCEPT, gives the probability of dropping out. */
-    public static double DROPOUT_RATE;
-    
-    /** See {@link #DROPOUT_RATE}. */
-    public static double DROPOUT_INTERCEPT;
+     * The encounter and similarity event streams, which are written to
+     * their files in the background. (See {@link EventLog}.) */
+    transient EncounterLog encounterLog;
+    transient SimilarityLog similarityLog;
 
-    public static final int NUM_MONTHS_IN_ACADEMIC_YEAR = 9;
-    public static final int NUM_MONTHS_IN_SUMMER = 3;
-    public static final int NUM_MONTHS_IN_YEAR = NUM_MONTHS_IN_ACADEMIC_YEAR +
-        NUM_MONTHS_IN_SUMMER;
-    
-    /** The length of the simulation in years, settable via command-line. */
-    public static int NUM_SIMULATION_YEARS;
+    // The name (before the SIMTAG) of every output file that a checkpoint
+    // keeps track of, and the extensions they can have.
+    private static final String[] OUTPUT_PREFIXES = { "people",
+        "friendships", "groups", "dropout", "encounters", "similarity",
+        "encounterSummary", "similaritySummary", "groupColoring" };
+    private static final String[] OUTPUT_EXTENSIONS = { ".csv", ".col" };
 
+    // The length of each output file that existed when the last checkpoint
+    // was written, by name without the SIMTAG (e.g., "people.csv").
+    private HashMap<String,Long> outputLengths = new HashMap<String,Long>();
 
-    // The list of every group in the entire simulation. 
-    private static ArrayList<Group> allGroups = new ArrayList<Group>();
+    // The checkpoint to write as soon as the current step is over, if any.
+    // (See CheckpointingSchedule.)
+    private transient String pendingCheckpoint;
     
-    // The list of every student in the entire simulation. (Maintained in
-    // addition to the Network for convenience.)
-    private static ArrayList<Person> peopleList = new ArrayList<Person>();
-    
-    // Singleton pattern.
-    private static Sim theInstance;
-
-
-    private static File outF;
-    private static BufferedWriter outWriter;
-    private static File FoutF;
-    private static BufferedWriter FoutWriter;
-    private static File PrefoutF;
-    private static BufferedWriter PrefoutWriter;
-    private static File groupF;
-    private static PrintWriter groupWriter;
-    static PrintWriter encounterWriter;
-    static PrintWriter similarityWriter;
-    
-    // Here is the schedule!
-    // Persons run at clock time 0.5, 1.5, 2.5, ..., 8.5, ..summer.., 12.5...
-    // Groups run at clock time 1, 2, 3, ..., 9 ..summer.. 13...
-    // The Sim object itself runs at 0.1, 9.1, 12.1, 21.1, 33.1, ... in other
-    // words, every August and May, just before all Persons and Groups run for
-    // the first time that academic year and after they all run for the last
-    // time that academic year.
-    boolean nextMonthInAcademicYear() {
-        double curTime = Sim.instance().schedule.getTime();
-        int curTimeInt = (int) Math.ceil(curTime);
-        // if curTimeInt is 1, that means we are at the first month.
-        int monthsWithinYear = curTimeInt % NUM_MONTHS_IN_YEAR;
-        return (monthsWithinYear < NUM_MONTHS_IN_ACADEMIC_YEAR);
+    // Here is the schedule! There are just four entries, each repeating
+    // every month, and each of which does nothing when it isn't needed:
+    // The Sim object itself runs at 0.1, 1.1, 2.1, ..., but only does
+    // anything at 0.1, 9.1, 12.1, 21.1, 33.1, ... in other words, every
+    // August and May, just before all Persons and Groups run for the first
+    // time that academic year and after they all run for the last time that
+    // academic year.
+    // The PersonPhase runs Persons at clock time 0.5, 1.5, 2.5, ..., 8.5,
+    // ..summer.., 12.5...
+    // (followed at those same times by the decayScheduler)
+    // The GroupPhase runs Groups at clock time 1, 2, 3, ..., 9 ..summer..
+    // 13...
+    /**
+     * Return whether the current time belongs to an academic month. (Month
+     * m's Persons run at m.5 and its Groups at m+1.)
+     */
+    boolean isAcademicMonth() {
+        int month = (int) Math.ceil(schedule.getTime()) - 1;
+        return Math.floorMod(month, NUM_MONTHS_IN_YEAR) <
+            NUM_MONTHS_IN_ACADEMIC_YEAR;
+    }
+
+    /**
+     * Fill the array passed (or, if it's too short, a new one) with a
+     * random permutation of 0 through n-1, from the Sim's generator, and
+     * return it. (This is the order the phases step agents in serially.)
+     */
+    int[] randomOrder(int[] order, int n) {
+        if (order.length < n) {
+            order = new int[Math.max(n, order.length * 2)];
+        }
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
     }
 
     /**
      * Return the total number of students currently in the simulation.
      */
-    public static int getNumPeople( ){
+    public int getNumPeople( ){
         return peopleList.size();
     }
 
     /**
      * Return the total number of groups currently in the simulation.
      */
-    public static int getNumGroups(){
+    public int getNumGroups(){
         return allGroups.size();
     }
 
-    /* creating the instance */
-    public static synchronized Sim instance(long seed){
-        if (theInstance == null){
-            theInstance = new Sim(seed);
-        }
-        return theInstance;
+    /**
+     * Return all the groups currently in the simulation, in the order they
+     * were created.
+     */
+    List<Group> getGroups(){
+        return allGroups;
     }
 
-    /* getting the instance */
-    static synchronized Sim instance()
-    {
-        if (theInstance == null) throw new AssertionError();
+    /** Return the registry of all students in the simulation. */
+    public Population getPeople(){
+        return peopleList;
+    }
 
-        return theInstance;
+    /** Return the settings of this simulation. */
+    public Parameters getParameters(){
+        return params;
     }
 
+    /**
+     * Have the Steppable passed stepped, with this Sim as its argument,
+     * every May, just before the year's output is written and students
+     * graduate or drop out. (This is how results can be collected without
+     * reading the output files; see {@link SweepRunner}.)
+     */
+    public void setYearEndObserver(Steppable observer){
+        yearEndObserver = observer;
+    }
 
-    /** Return the list of all students in the simulation. */
-    public static ArrayList<Person> getPeople(){
-        return peopleList;
+    // The id of the next student or group created in this simulation.
+    int nextPersonId(){
+        return nextPersonId++;
+    }
+
+    int nextGroupId(){
+        return nextGroupId++;
     }
     
-    public Sim(long seed){
-        super(seed);
-        this.SEED = seed;
+    /**
+     * Create a simulation with the seed and settings passed. (The seed, not
+     * params.seed, is the one used; MASON may pass a different one for each
+     * repetition of a run.)
+     */
+    public Sim(long seed, Parameters params){
+        this(seed, params, OutputFiles.CURRENT_DIRECTORY);
+    }
+
+    /**
+     * Create a simulation with the seed and settings passed, whose output
+     * files go where the OutputFiles passed say.
+     */
+    Sim(long seed, Parameters params, OutputFiles outputs){
+        super(seed, new CheckpointingSchedule());
+        this.params = params;
+        this.outputs = outputs;
+        attributes = new AttributeStore(params.constantAttributePoolSize,
+            params.preferencePoolSize, params.hobbyPoolSize);
+        decayScheduler = new DecayScheduler(this, params.decayThreshold);
+        openEventLogs(false);
+    }
 
+    // Start the encounter and similarity logs (continuing their files, if
+    // append is true.)
+    private void openEventLogs(boolean append){
         try {
-            encounterWriter = new PrintWriter(
-                new FileWriter("encounters"+Sim.SIMTAG+".csv"));
-            encounterWriter.println("year,id1,id2,type");
-            encounterWriter.flush();
-
-            similarityWriter = new PrintWriter(
-                new FileWriter("similarity"+Sim.SIMTAG+".csv"));
-            similarityWriter.println("year,races,similarity,becameFriends");
-            similarityWriter.flush();
+            encounterLog = new EncounterLog(params.writeOutput ?
+                params.encounterLogLevel : EventLog.Level.NONE,
+                params.tracerRate, outputs, params.simtag,
+                params.columnarOutput, append);
+            similarityLog = new SimilarityLog(params.writeOutput ?
+                params.similarityLogLevel : EventLog.Level.NONE,
+                params.tracerRate, outputs, params.simtag,
+                params.columnarOutput, append);
         } catch (IOException e) { e.printStackTrace(); }
     }
     
     public void start( ){
         super.start( );
 
-        // NOTE: the simulation starts at time -1. (Yes, NEGATIVE one.) This
-        // is why we do things like schedule the first students at time 1.5
-        // from now, and groups at time 2.0 from now: so they run at times 0.5
-        // and 1.0, respectively.
+        if (params.numThreads > 0) {
+            phaseExecutor = new PhaseExecutor(params.numThreads);
+        }
+        personPhase = new PersonPhase(this, phaseExecutor);
+        groupPhase = new GroupPhase(this, phaseExecutor);
+
+        // NOTE: the simulation starts at time -1. (Yes, NEGATIVE one.) The
+        // first students run at time 0.5, and groups at time 1.0.
 
-        for(int i=0; i<INIT_NUM_PEOPLE; i++){
-            //Create a person of random year, add and schedule them.
-            Person person = new Person();
+        for(int i=0; i<params.initNumPeople; i++){
+            //Create a person of random year, and add them.
+            Person person = new Person(this);
             person.setYear(random.nextInt(4)+1);
             peopleList.add(person);
             peopleGraph.addNode(person);
-            schedule.scheduleOnceIn(1.5, person);
         }
 
         // Initialize with some "plain ol' groups."
-        for(int x = 0; x<INIT_NUM_GROUPS; x++){
-            //Create a new group, add and schedule it.
-            Group group = new Group();
+        for(int x = 0; x<params.initNumGroups; x++){
+            //Create a new group, and add it.
+            Group group = new Group(this);
             allGroups.add(group);
-            schedule.scheduleOnceIn(2.0, group);
         }
 
+        applyInterventions();
+
+        //Schedule ourselves, the phases, and friendship decay to run every
+        //month, starting with the first academic year. (Decay runs just
+        //after all the students, hence the later ordering.)
+        steppers.clear();
+        steppers.add(schedule.scheduleRepeating(0.1, 0, this, 1.0));
+        steppers.add(schedule.scheduleRepeating(0.5, 0, personPhase, 1.0));
+        steppers.add(schedule.scheduleRepeating(0.5, 1, decayScheduler, 1.0));
+        steppers.add(schedule.scheduleRepeating(1.0, 0, groupPhase, 1.0));
+
+    }
+
+    // Add the forced-mixed-race orientation groups and forced opposite-race
+    // friendships (if any) to the students there are now.
+    private void applyInterventions(){
         // Initialize with forced-mixed-race orientation groups (if any).
-        for(int x = 0; x<Group.INITIAL_NUM_MIXED_RACE_GROUPS; x++){
-            Group group = new Group(Group.MIXED_RACE_GROUP_FRACTION);
+        for(int x = 0; x<params.initNumMixedRaceGroups; x++){
+            Group group = new Group(this, params.mixedRaceGroupFraction);
             allGroups.add(group);
-            schedule.scheduleOnceIn(2.0, group);
         }
 
         for(int i = 0; i<peopleList.size(); i++){
-            for (int j=0; j<Person.INITIAL_NUM_FORCED_OPPOSITE_RACE_FRIENDS;
-                                                                        j++){
+            for (int j=0; j<params.initNumForcedOppRaceFriends; j++){
                 peopleList.get(i).forceAddRandomOppRaceFriend();
             }
         }
-
-        //Schedule ourselves to run at start of first academic year.
-        schedule.scheduleOnceIn(1.1, this);
-
     }
     
     /**
@@ -222,124 +323,37 @@ public class Sim extends SimState implements Steppable{
      */
     public static void main(String[] args) throws IOException {
 
-        // Mandatory command-line values.
-        NUM_SIMULATION_YEARS = -1;
-        SIMTAG = -1;
-
-        // Optional values with defaults.
-        Person.RACE_WEIGHT = 5;
-        Person.PROBABILITY_WHITE = .8;
-        INIT_NUM_PEOPLE = 4000;
-        NUM_FRESHMEN_ENROLLING_PER_YEAR = 1000;
-        INIT_NUM_GROUPS = 200;
-        NUM_NEW_GROUPS_PER_YEAR = 10;
-        Person.NUM_TO_MEET_POP = 5;
-        Person.NUM_TO_MEET_GROUP = 10;
-        Person.DECAY_THRESHOLD = 2;
-        Person.FRIENDSHIP_COEFFICIENT = .22;
-        Person.FRIENDSHIP_INTERCEPT = .05;
-        Person.NUM_PREFERENCES = Person.PREFERENCE_POOL_SIZE = 20;
-        Person.NUM_HOBBIES = Person.HOBBY_POOL_SIZE = 20;
-        Person.INITIAL_NUM_FORCED_OPPOSITE_RACE_FRIENDS = 0;
-        Group.INITIAL_NUM_MIXED_RACE_GROUPS = 0;
-        Group.MIXED_RACE_GROUP_FRACTION = .5;
-        Group.RECRUITMENT_REQUIRED = .6;
-        Group.LIKELIHOOD_OF_RANDOMLY_LEAVING_GROUP = .1;
-        Group.LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE = .1;
-        Group.DRIFT_DISTANCE = .2;
-        Person.LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE = .1;
-        Person.DRIFT_DISTANCE = .2;
-        SEED = System.currentTimeMillis();
-
-        for (int i=0; i<args.length; i++) {
-            if (args[i].equals("-maxTime")) {
-                NUM_SIMULATION_YEARS = Integer.valueOf(args[++i]);
-            } else if (args[i].equals("-simtag")) {
-                SIMTAG = Long.valueOf(args[++i]);
-            } else if (args[i].equals("-raceWeight")) {
-                Person.RACE_WEIGHT = Integer.valueOf(args[++i]);
-            } else if (args[i].equals("-probWhite")) {
-                Person.PROBABILITY_WHITE = Double.valueOf(args[++i]);
-            } else if (args[i].equals("-seed")) {
-                SEED = Long.parseLong(args[++i]);
-            } else if (args[i].equals("-initNumPeople")) {
-                INIT_NUM_PEOPLE = Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-numFreshmenPerYear")) {
-                NUM_FRESHMEN_ENROLLING_PER_YEAR = Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-initNumGroups")) {
-                INIT_NUM_GROUPS = Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-numNewGroupsPerYear")) {
-                NUM_NEW_GROUPS_PER_YEAR = Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-groupDriftRate")) {
-                Group.LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE =
-                    Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-groupDriftDistance")) {
-                Group.DRIFT_DISTANCE = Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-peerDriftRate")) {
-                Person.LIKELIHOOD_OF_RANDOMLY_CHANGING_ATTRIBUTE =
-                    Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-peerDriftDistance")) {
-                Person.DRIFT_DISTANCE = Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-dropoutRate")) {
-                DROPOUT_RATE = Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-dropoutIntercept")) {
-                DROPOUT_INTERCEPT = Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-numToMeetPop")) {
-                Person.NUM_TO_MEET_POP = Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-numToMeetGroup")) {
-                Person.NUM_TO_MEET_GROUP = Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-decayThreshold")) {
-                Person.DECAY_THRESHOLD = Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-friendshipCoefficient")) {
-                Person.FRIENDSHIP_COEFFICIENT = Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-friendshipIntercept")) {
-                Person.FRIENDSHIP_INTERCEPT = Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-numPreferences")) {
-                Person.NUM_PREFERENCES = Person.PREFERENCE_POOL_SIZE =
-                    Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-numHobbies")) {
-                Person.NUM_HOBBIES = Person.HOBBY_POOL_SIZE =
-                    Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-initNumForcedOppRaceFriends")) {
-                Person.INITIAL_NUM_FORCED_OPPOSITE_RACE_FRIENDS = 
-                    Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-initNumMixedRaceGroups")) {
-                Group.INITIAL_NUM_MIXED_RACE_GROUPS = 
-                    Integer.parseInt(args[++i]);
-            } else if (args[i].equals("-mixedRaceGroupFraction")) {
-                Group.MIXED_RACE_GROUP_FRACTION = Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-recruitmentRequired")) {
-                Group.RECRUITMENT_REQUIRED = Double.parseDouble(args[++i]);
-            } else if (args[i].equals("-likelihoodOfLeavingGroup")) {
-                Group.LIKELIHOOD_OF_RANDOMLY_LEAVING_GROUP = 
-                    Double.parseDouble(args[++i]);
+        for (int i=0; i<args.length-1; i++) {
+            if (args[i].equals("-fork")) {
+                runFork(args[i+1], args);
+                return;
             }
         }
 
-        if (NUM_SIMULATION_YEARS == -1  ||
-            SIMTAG == -1) {
+        final Parameters params;
+        try {
+            params = Parameters.parse(args);
+        } catch (IllegalArgumentException e) {
             printUsageAndQuit();
+            return;
         }
+        Log.LEVEL = params.logLevel;
 
-        // Write the parameters file to a SIMTAG-annotated filename in the 
-        // current directory.
-        try {
-            PrintWriter paramsFile = new PrintWriter(new BufferedWriter(
-                new FileWriter("./sim_params" + SIMTAG + ".txt")));
-            paramsFile.println("seed="+SEED);
-            paramsFile.println("maxTime="+NUM_SIMULATION_YEARS);
-            paramsFile.println("simtag="+SIMTAG);
-            paramsFile.println("raceWeight="+Person.RACE_WEIGHT);
-            paramsFile.println("initNumPeople="+INIT_NUM_PEOPLE);
-            paramsFile.println("numFreshmenPerYear="+
-                NUM_FRESHMEN_ENROLLING_PER_YEAR);
-            paramsFile.println("initNumGroups="+INIT_NUM_GROUPS);
-            paramsFile.println("numNewGroupsPerYear="+
-                NUM_NEW_GROUPS_PER_YEAR);
-            paramsFile.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(2);
+        writeParamsFile(params, null);
+
+        // A burn-in is run (or loaded) here, not by MASON, which would start
+        // the simulation over.
+        if (params.burnInYears > 0) {
+            Sim sim;
+            try {
+                sim = startAfterBurnIn(params);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                printUsageAndQuit();
+                return;
+            }
+            runToEnd(sim);
+            return;
         }
 
         // Add the "-seed SEED" arguments to args so that when doLoop() runs,
@@ -349,12 +363,12 @@ public class Sim extends SimState implements Steppable{
             newargs[i] = args[i];
         }
         newargs[newargs.length-2] = "-seed";
-        newargs[newargs.length-1] = "" + SEED;
+        newargs[newargs.length-1] = "" + params.seed;
         args = newargs;
 
         doLoop(new MakesSimState() { 
             public SimState newInstance(long seed, String[] args) {
-                return instance(seed);
+                return new Sim(seed, params);
             }
             public Class simulationClass() {
                 return Sim.class;
@@ -362,20 +376,354 @@ public class Sim extends SimState implements Steppable{
         }, args);
     }
 
+    // Carry on from the checkpoint file named, with the settings in args
+    // changed. (See fork().)
+    private static void runFork(String checkpoint, String[] args)
+        throws IOException {
+        Sim sim;
+        try {
+            sim = fork(new File(checkpoint), args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsageAndQuit();
+            return;
+        }
+        Log.LEVEL = sim.params.logLevel;
+        writeParamsFile(sim.params, checkpoint);
+        Log.info("Forked from " + checkpoint + " at year " +
+            sim.getCurrYearNum());
+        runToEnd(sim);
+    }
+
+    private static void runToEnd(Sim sim) {
+        while (sim.schedule.step(sim)) {
+        }
+        sim.finish();
+    }
+
+    // Write the parameters file to a SIMTAG-annotated filename in the
+    // current directory (noting the checkpoint the run was forked from, if
+    // any.)
+    private static void writeParamsFile(Parameters params,
+        String forkedFrom) {
+        try {
+            PrintWriter paramsFile = new PrintWriter(new BufferedWriter(
+                new FileWriter("./sim_params" + params.simtag + ".txt")));
+            params.print(paramsFile);
+            if (forkedFrom != null) {
+                paramsFile.println("forkedFrom="+forkedFrom);
+            }
+            paramsFile.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Return the simulation saved in the checkpoint file passed, ready to
+     * carry on from the end of the May it was written in, with the settings
+     * given by the command-line arguments passed (in the form described by
+     * {@link #printUsageAndQuit()}) changed.
+     * <p></p>
+     * Its output files begin as copies of the original run's files (in the
+     * current directory, as are its checkpoints) as they stood at the
+     * checkpoint, under the new SIMTAG; or, if the SIMTAG isn't changed, the original files are cut
+     * back to that point, which resumes the original run. If no setting is
+     * changed, the rest of the run is exactly what it was (or would have
+     * been) without the checkpoint.
+     * <p></p>
+     * Any setting about what happens from then on can be changed. Some
+     * have a special meaning:
+     * <ul>
+     * <li><code>-seed</code> starts every random number stream over from the
+     * new seed (for replicates of a scenario.)</li>
+     * <li><code>-initNumMixedRaceGroups</code> and
+     * <code>-initNumForcedOppRaceFriends</code> are carried out at the fork,
+     * on the students enrolled then, rather than at the start.</li>
+     * <li><code>-maxTime</code> can lengthen or shorten the run.</li>
+     * </ul>
+     * The starting numbers of people and groups, the numbers of preferences
+     * and hobbies, and the decay threshold are fixed.
+     *
+     * @throws IllegalArgumentException if a setting can't be understood or
+     * can't be changed.
+     * @throws IOException if the checkpoint or the original output files
+     * can't be read, or the new output files written.
+     */
+    public static Sim fork(File checkpoint, String[] args)
+        throws IOException {
+        return fork(checkpoint, args, OutputFiles.CURRENT_DIRECTORY);
+    }
+
+    /**
+     * Like {@link #fork(File, String[])}, but with the original run's
+     * output files, and the new run's output files and checkpoints, where
+     * the OutputFiles passed say.
+     */
+    static Sim fork(File checkpoint, String[] args, OutputFiles outputs)
+        throws IOException {
+        Sim sim = readCheckpoint(checkpoint);
+        sim.outputs = outputs;
+        Parameters changed = sim.params.copy();
+        changed.initNumMixedRaceGroups = 0;
+        changed.initNumForcedOppRaceFriends = 0;
+        changed.setAll(args);
+        sim.carryOn(changed, true);
+        return sim;
+    }
+
+    /**
+     * Return a new simulation with the settings passed, started and, if
+     * {@link Parameters#burnInYears} is positive, through its burn-in: as
+     * it stands at the end of the burn-in's last May. That state is taken
+     * from the {@link Parameters#warmStartCache}, if it's there; otherwise
+     * it is simulated (writing no output) and then added to the cache. (Runs
+     * in this process that need a burn-in that's already being simulated
+     * wait for it; see {@link WarmStartCache#load}.) Either way, the rest of
+     * the run is exactly the same.
+     *
+     * @throws IllegalArgumentException if the run isn't longer than its
+     * burn-in.
+     * @throws IOException if the cache can't be read or written.
+     */
+    public static Sim startAfterBurnIn(final Parameters params)
+        throws IOException {
+        if (params.burnInYears <= 0) {
+            Sim sim = new Sim(params.seed, params);
+            sim.start();
+            return sim;
+        }
+        if (params.numSimulationYears <= params.burnInYears) {
+            throw new IllegalArgumentException(
+                "-maxTime must be more than -burnIn");
+        }
+
+        Sim sim;
+        if (params.warmStartCache != null) {
+            WarmStartCache cache = new WarmStartCache(
+                new File(params.warmStartCache),
+                params.warmStartCacheMegabytes << 20);
+            sim = cache.load(WarmStartCache.describe(params),
+                new Callable<Sim>() {
+                    public Sim call() {
+                        return burnIn(params);
+                    }
+                });
+        } else {
+            sim = burnIn(params);
+        }
+        sim.carryOn(params, false);
+        return sim;
+    }
+
+    // A new simulation with the settings passed, run (writing no output)
+    // through the end of its burn-in.
+    private static Sim burnIn(Parameters params) {
+        Parameters burnIn = params.copy();
+        burnIn.writeOutput = false;
+        Sim sim = new Sim(params.seed, burnIn);
+        sim.start();
+        // (The step after the last group step is the Sim's own, in May.)
+        double end = NUM_MONTHS_IN_YEAR * (params.burnInYears - 1) +
+            NUM_MONTHS_IN_ACADEMIC_YEAR;
+        while (sim.schedule.getTime() <= end && sim.schedule.step(sim)) {
+        }
+        return sim;
+    }
+
+    /** Returns the simulation saved in the checkpoint file passed. */
+    static Sim readCheckpoint(File checkpoint) throws IOException {
+        InputStream in = new FileInputStream(checkpoint);
+        try {
+            return (Sim) readFromCheckpoint(in);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Not a checkpoint: " + checkpoint, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Carry on from a checkpoint with the settings passed in place of the
+    // ones it was saved with, starting the output files off from where the
+    // checkpoint left them (see fork()), and, if intervene is true, adding
+    // whatever mixed-race groups and forced friendships they ask for.
+    private void carryOn(Parameters changed, boolean intervene)
+        throws IOException {
+        Parameters before = params.copy();
+        if (changed.initNumPeople != before.initNumPeople ||
+            changed.initNumGroups != before.initNumGroups ||
+            changed.numPreferences != before.numPreferences ||
+            changed.numHobbies != before.numHobbies ||
+            changed.decayThreshold != before.decayThreshold) {
+            throw new IllegalArgumentException("-initNumPeople, " +
+                "-initNumGroups, -numPreferences, -numHobbies, and " +
+                "-decayThreshold can't be changed in a fork");
+        }
+        if (changed.numSimulationYears <= getCurrYearNum() + 1) {
+            throw new IllegalArgumentException("-maxTime must be more than " +
+                (getCurrYearNum() + 1) + " to continue from year " +
+                getCurrYearNum());
+        }
+        params.copyFrom(changed);
+
+        if (params.writeOutput) {
+            restoreOutputs(before.simtag);
+        }
+        openEventLogs(true);
+        if (phaseExecutor != null) {
+            phaseExecutor.shutdown();
+        }
+        phaseExecutor = params.numThreads > 0 ?
+            new PhaseExecutor(params.numThreads) : null;
+        personPhase.setExecutor(phaseExecutor);
+        groupPhase.setExecutor(phaseExecutor, true);
+
+        if (params.seed != before.seed) {
+            setSeed(params.seed);
+            for(int x = 0; x<peopleList.size(); x++){
+                peopleList.get(x).reseed();
+            }
+            for(int x = 0; x<allGroups.size(); x++){
+                allGroups.get(x).reseed();
+            }
+        }
+        if (intervene) {
+            applyInterventions();
+        }
+    }
+
+    // Make this run's output files what they were when the checkpoint was
+    // written, copying them from the run whose SIMTAG is passed if it was a
+    // different one. (Files that didn't exist yet are removed.)
+    private void restoreOutputs(long originalSimtag) throws IOException {
+        for(int i = 0; i<OUTPUT_PREFIXES.length; i++){
+            for(int j = 0; j<OUTPUT_EXTENSIONS.length; j++){
+                String prefix = OUTPUT_PREFIXES[i];
+                String extension = OUTPUT_EXTENSIONS[j];
+                String name = prefix + params.simtag + extension;
+                Long length = outputLengths.get(prefix + extension);
+                if (length == null) {
+                    outputs.delete(name);
+                } else if (originalSimtag == params.simtag) {
+                    outputs.truncate(name, length);
+                } else {
+                    outputs.copyPrefix(prefix + originalSimtag + extension,
+                        name, length);
+                }
+            }
+        }
+    }
+
+    // Write the checkpoint asked for during the step just finished, if any.
+    // (See CheckpointingSchedule.)
+    private void writePendingCheckpoint() {
+        if (pendingCheckpoint == null) {
+            return;
+        }
+        String filename = pendingCheckpoint;
+        pendingCheckpoint = null;
+
+        // Everything logged so far belongs to the checkpoint.
+        encounterLog.flush();
+        similarityLog.flush();
+        outputLengths.clear();
+        for(int i = 0; i<OUTPUT_PREFIXES.length; i++){
+            for(int j = 0; j<OUTPUT_EXTENSIONS.length; j++){
+                String name = OUTPUT_PREFIXES[i] + params.simtag +
+                    OUTPUT_EXTENSIONS[j];
+                if (outputs.exists(name)) {
+                    outputLengths.put(OUTPUT_PREFIXES[i] +
+                        OUTPUT_EXTENSIONS[j], outputs.length(name));
+                }
+            }
+        }
+
+        try{
+            OutputStream out = outputs.open(filename, false);
+            try{
+                writeToCheckpoint(out);
+            }finally{
+                out.close();
+            }
+        }catch(IOException e){
+            System.out.println("Couldn't write checkpoint");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        Log.info("Wrote checkpoint: "+filename);
+    }
+
+    // Save every group's members and every student's groups after
+    // everything else. (See Person.writeGroups().)
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for(int x = 0; x<allGroups.size(); x++){
+            allGroups.get(x).writeStudents(out);
+        }
+        for(int x = 0; x<peopleList.size(); x++){
+            peopleList.get(x).writeGroups(out);
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for(int x = 0; x<allGroups.size(); x++){
+            allGroups.get(x).readStudents(in);
+        }
+        for(int x = 0; x<peopleList.size(); x++){
+            peopleList.get(x).readGroups(in);
+        }
+        groupmateSampler = new GroupmateSampler();
+        outputs = OutputFiles.CURRENT_DIRECTORY;
+    }
+
+    /**
+     * The Sim's schedule, which, after each step, writes the checkpoint the
+     * Sim asked for during that step (if any.) A checkpoint can't be written
+     * from within the Sim's own step, since MASON can't carry on with a
+     * schedule saved in the middle of one.
+     */
+    private static class CheckpointingSchedule extends Schedule {
+
+        private static final long serialVersionUID = 1;
+
+        public boolean step(SimState state) {
+            boolean more = super.step(state);
+            ((Sim) state).writePendingCheckpoint();
+            return more;
+        }
+    }
+
     private boolean isEndOfSim() {
-        return (schedule.getTime()/NUM_MONTHS_IN_YEAR) > NUM_SIMULATION_YEARS;
+        return (schedule.getTime()/NUM_MONTHS_IN_YEAR) >
+            params.numSimulationYears;
     }
 
     boolean isLastYearOfSim() {
         return (schedule.getTime()/NUM_MONTHS_IN_YEAR) >= 
-            NUM_SIMULATION_YEARS - 1;
+            params.numSimulationYears - 1;
     }
 
     int getCurrYearNum() {
         return (int) schedule.getTime()/NUM_MONTHS_IN_YEAR;
     }
 
-    private void dumpToFiles() {
+    void dumpToFiles() {
+
+        //Close out this year's encounter and similarity statistics (if
+        //those streams are being summarized)
+        encounterLog.writeSummary();
+        similarityLog.writeSummary();
+
+        if(!params.writeOutput){
+            return;
+        }
+        if(params.columnarOutput){
+            dumpToColumnarFiles();
+            return;
+        }
 
         if(outWriter!=null){
             try{
@@ -396,18 +744,16 @@ public class Sim extends SimState implements Steppable{
         }
 
         if(!isEndOfSim()){
-            String f="people"+SIMTAG+".csv";
+            String f="people"+params.simtag+".csv";
             try{
-                outF = new File(f);
-                outF.createNewFile( );
-                outWriter = new BufferedWriter(new FileWriter(outF,true));
+                outWriter = new BufferedWriter(outputs.openWriter(f,true));
             }catch(IOException e){
                 System.out.println("Couldn't create file");
                 e.printStackTrace();
                 System.exit(1);
             }
 
-            if (Sim.instance().getCurrYearNum() == 0) {
+            if (getCurrYearNum() == 0 || outputs.length(f) == 0) {
                 Person.printHeaderToFile(outWriter);
             }
             for(int x = 0; x<peopleList.size(); x++){
@@ -415,12 +761,11 @@ public class Sim extends SimState implements Steppable{
             }
             
             //FILE OF FRIENDSHIPS
-            String ff="friendships"+SIMTAG+".csv";
+            String ff="friendships"+params.simtag+".csv";
             try{
                 // append to current file, if exists
-                FoutF = new File(ff);
-                FoutWriter = new BufferedWriter(new FileWriter(FoutF, true));
-                if (Sim.instance().getCurrYearNum() == 0) {
+                FoutWriter = new BufferedWriter(outputs.openWriter(ff, true));
+                if (getCurrYearNum() == 0 || outputs.length(ff) == 0) {
                     printHeaderToFriendshipsFile(FoutWriter);
                 }
                 for(int x = 0; x<peopleList.size(); x++){
@@ -434,12 +779,11 @@ public class Sim extends SimState implements Steppable{
             }
             
             //FILE OF GROUPS
-            String gf="groups"+SIMTAG+".csv";
+            String gf="groups"+params.simtag+".csv";
             try{
                 // append to current file, if exists
-                groupF = new File(gf);
-                groupWriter = new PrintWriter(new FileWriter(groupF, true));
-                if (Sim.instance().getCurrYearNum() == 0) {
+                groupWriter = new PrintWriter(outputs.openWriter(gf, true));
+                if (getCurrYearNum() == 0 || outputs.length(gf) == 0) {
                     Group.printHeaderToGroupsFile(groupWriter);
                 }
                 for(int x = 0; x<allGroups.size(); x++){
@@ -454,6 +798,55 @@ public class Sim extends SimState implements Steppable{
         }
     }
 
+    /**
+     * Like {@link #dumpToFiles()}, but appends this year's rows to each of
+     * the people, friendships, and groups files in columnar format.
+     */
+    private void dumpToColumnarFiles() {
+        if(isEndOfSim()){
+            return;
+        }
+        try{
+            ColumnarWriter w = Person.openColumnarFile(outputs,
+                "people"+params.simtag+".col");
+            for(int x = 0; x<peopleList.size(); x++){
+                peopleList.get(x).printToFile(w);
+            }
+            w.close();
+
+            w = openColumnarFriendshipsFile(outputs,
+                "friendships"+params.simtag+".col");
+            for(int x = 0; x<peopleList.size(); x++){
+                peopleList.get(x).printFriendsToFile(w);
+            }
+            w.close();
+
+            w = Group.openColumnarGroupsFile(outputs,
+                "groups"+params.simtag+".col");
+            for(int x = 0; x<allGroups.size(); x++){
+                allGroups.get(x).printToFile(w);
+            }
+            w.close();
+        }catch(IOException e){
+            System.out.println("Couldn't write file");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Open (or continue) a columnar file of friendships, among the output
+     * files passed, with the same columns as the CSV friendships file.
+     */
+    static ColumnarWriter openColumnarFriendshipsFile(OutputFiles files,
+        String filename) throws IOException {
+        return new ColumnarWriter(files, filename,
+            new String[] { "period", "id", "friendId" },
+            new byte[] { ColumnarWriter.INT, ColumnarWriter.INT,
+                ColumnarWriter.INT },
+            new String[3][]);
+    }
+
     static void printHeaderToFriendshipsFile(BufferedWriter writer) {
         try {
             writer.write("period,id,friendId\n");
@@ -461,24 +854,53 @@ public class Sim extends SimState implements Steppable{
             e.printStackTrace();
         }
     }
-    private void dumpToDropoutFile(Person p) {
-        String f="dropout"+SIMTAG+".csv";
+    /**
+     * Add a row for each of this year's dropouts passed (before they leave)
+     * to the dropout file, opening it just once (so that in columnar
+     * format, they are one batch.)
+     */
+    void dumpToDropoutFile(List<Person> dropouts) {
+        if(!params.writeOutput || dropouts.isEmpty()){
+            return;
+        }
+        if(params.columnarOutput){
+            try{
+                ColumnarWriter w =
+                    Person.openColumnarFile(outputs,
+                        "dropout"+params.simtag+".col");
+                for(int x = 0; x<dropouts.size(); x++){
+                    dropouts.get(x).printToFile(w);
+                }
+                w.close();
+            }catch(IOException e){
+                System.out.println("Couldn't write file");
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        String f="dropout"+params.simtag+".csv";
         BufferedWriter outWriter = null;
         try{
-            File outputFile = new File(f);
-            if (!outputFile.exists()) {
-                outputFile.createNewFile( );
-                outWriter = new BufferedWriter(new FileWriter(outputFile));
+            if (!outputs.exists(f)) {
+                outWriter = new BufferedWriter(outputs.openWriter(f,false));
                 Person.printHeaderToFile(outWriter);
             } else {
-                outWriter = new BufferedWriter(new FileWriter(outputFile,true));
+                outWriter = new BufferedWriter(outputs.openWriter(f,true));
             }
         }catch(IOException e){
             System.out.println("Couldn't create file");
             e.printStackTrace();
             System.exit(1);
         }
-        p.printToFile(outWriter);
+        for(int x = 0; x<dropouts.size(); x++){
+            dropouts.get(x).printToFile(outWriter);
+        }
+        try{
+            outWriter.close();
+        }catch(IOException e){
+            System.out.println("Could not close file");
+        }
     }
 
     public void dumpPreferencesOfGraduatedStudent(Person x){
@@ -508,12 +930,10 @@ public class Sim extends SimState implements Steppable{
             }
         }
         try{
-        String string = "dropout" + SIMTAG + ".csv";
-                PrefoutF = new File(string);
-                if(!PrefoutF.exists()){
-                    PrefoutF.createNewFile();
+        String string = "dropout" + params.simtag + ".csv";
+                if(!outputs.exists(string)){
                     PrefoutWriter = 
-                        new BufferedWriter(new FileWriter(PrefoutF));
+                        new BufferedWriter(outputs.openWriter(string,false));
                     PrefoutWriter.write(
                         "period,ID,numFriends,race,alienation,year");
                 }
@@ -528,46 +948,47 @@ public class Sim extends SimState implements Steppable{
 
     public void step(SimState state){
 
-        System.out.println("#### SIM (" + schedule.getTime() + ")");
+        // Only August and May have anything to do.
+        int monthWithinYear = Math.floorMod((int) schedule.getTime(),
+            NUM_MONTHS_IN_YEAR);
+        if(monthWithinYear != 0 &&
+            monthWithinYear != NUM_MONTHS_IN_ACADEMIC_YEAR){
+            return;
+        }
+        if(Log.enabled(Log.DEBUG)){
+            Log.debug("#### SIM (" + schedule.getTime() + ")");
+        }
         if(!isEndOfSim()) {
 
-            if(nextMonthInAcademicYear()){
+            if(monthWithinYear == 0){
                 /*
                  * August.
                  * Year-start activities. Increment everyone's year, enroll
                  * the new freshman class, create new groups.
                  */
-                System.out.println("---------------");
-                System.out.println("Starting year: "+getCurrYearNum());
+                Log.info("---------------");
+                Log.info("Starting year: "+getCurrYearNum());
                 for(int x = 0; x<peopleList.size(); x++){
                     peopleList.get(x).incrementYear();
                 }
-                for(int x = 0; x<NUM_FRESHMEN_ENROLLING_PER_YEAR; x++){
+                for(int x = 0; x<params.numFreshmenPerYear; x++){
                     //Create and add a new freshman
-                    Person person = new Person();
+                    Person person = new Person(this);
                     person.setYear(1);
                     peopleList.add(person);
                     peopleGraph.addNode(person);
-                    //Schedule the person.
-                    //Why 1.4 from now? Because (1) we the Sim are running at 
-                    //int.1, and (2) students each run at int.5.
-                    schedule.scheduleOnceIn(1.4, person);
+                    //(The PersonPhase will step them from this month on.)
                 }
-                for(int x = 0; x<NUM_NEW_GROUPS_PER_YEAR; x++){
+                for(int x = 0; x<params.numNewGroupsPerYear; x++){
                     //Create a new group with the list of people
-                    Group group = new Group();
+                    Group group = new Group(this);
                     //Add the group
                     allGroups.add(group);
-                    //Schedule the group.
-                    //Why 1.9 from now? Because (1) we the Sim are running at 
-                    //int.1, and (2) groups each run at integer times.
-                    schedule.scheduleOnceIn(1.9,group);
+                    //(The GroupPhase will step it from this month on.)
                 }
                 /*
-                 * The new academic year is now ready to begin! Schedule
-                 * myself to wake up in May.
+                 * The new academic year is now ready to begin!
                  */
-                schedule.scheduleOnceIn(NUM_MONTHS_IN_ACADEMIC_YEAR, this);
 
             }else{
 
@@ -576,10 +997,14 @@ public class Sim extends SimState implements Steppable{
                  * Year-end activities. Dump output files, graduate and
                  * dropout students, remove some groups.
                  */
-                System.out.println("End of year: "+getCurrYearNum());
+                Log.info("End of year: "+getCurrYearNum());
                 ArrayList<Person> toRemove = new ArrayList<Person>();
+                ArrayList<Person> dropouts = new ArrayList<Person>();
                 // ArrayList<Group> toRemoveGroups = new ArrayList<Group>();
 
+                if(yearEndObserver!=null){
+                    yearEndObserver.step(this);
+                }
                 dumpToFiles();
                 if(!isEndOfSim()) {
                     //For all of the people
@@ -592,15 +1017,16 @@ public class Sim extends SimState implements Steppable{
                         //Otherwise
                         }else{
                             double alienationLevel = student.getAlienation( );
-                            double alienation = DROPOUT_RATE * alienationLevel 
-                                + DROPOUT_INTERCEPT; 
+                            double alienation = params.dropoutRate * alienationLevel 
+                                + params.dropoutIntercept; 
                             double dropChance = random.nextDouble( );
                             if(dropChance <= alienation){
-                                dumpToDropoutFile(student);
+                                dropouts.add(student);
                                 toRemove.add(student);
                             }
                         }
                     }
+                    dumpToDropoutFile(dropouts);
 /*
  * Nuke groups randomly...do we want to do this?
                     for(int x = 0; x<allGroups.size(); x++){
@@ -613,30 +1039,64 @@ public class Sim extends SimState implements Steppable{
                         allGroups.remove(toRemoveGroups.get(x));
                     }
 */
+                    //Take them all off the rolls in one pass, then let each
+                    //person leave their groups and friends
+                    peopleList.removeAll(toRemove);
                     for(int x = 0; x<toRemove.size(); x++){
-                        //Let the person leave their groups
                         toRemove.get(x).leaveUniversity();
-                        peopleList.remove(toRemove.get(x));
-                        peopleGraph.removeNode(toRemove.get(x));
                     }
                     // toRemoveGroups.clear();
                     toRemove.clear();
                 }
                 /*
                  * The academic year is now complete -- have a great summer!
-                 * Schedule myself to wake up in August, unless this is truly
-                 * the end.
+                 * Unless this is truly the end.
                  */
-                if (!isLastYearOfSim()) {
-                    schedule.scheduleOnceIn(NUM_MONTHS_IN_SUMMER, this);
-                } else {
+                if (isLastYearOfSim()) {
+                    for(int x = 0; x<steppers.size(); x++){
+                        steppers.get(x).stop();
+                    }
                     schedule.seal();
+                    closeEventLogs();
+                } else if (params.writeOutput &&
+                    params.checkpointInterval > 0 &&
+                    (getCurrYearNum() + 1) % params.checkpointInterval == 0) {
+                    pendingCheckpoint = "checkpoint" + params.simtag + "_" +
+                        getCurrYearNum() + ".ckpt";
                 }
             }
         }
 
     }
 
+    /**
+     * Wait for the encounter and similarity logs to be completely written,
+     * and close them.
+     */
+    private void closeEventLogs() {
+        if(encounterLog!=null){
+            encounterLog.close();
+        }
+        if(similarityLog!=null){
+            similarityLog.close();
+        }
+    }
+
+    /**
+     * Called by MASON when the run is over, however it ended. Makes sure
+     * nothing logged is left unwritten.
+     */
+    public void finish() {
+        super.finish();
+        closeEventLogs();
+        if(groupPhase!=null){
+            groupPhase.close();
+        }
+        if(phaseExecutor!=null){
+            phaseExecutor.shutdown();
+        }
+    }
+
     /** (public simply to get it in the JavaDoc.) */
     public static void printUsageAndQuit() {
         System.err.println(
@@ -667,7 +1127,24 @@ public class Sim extends SimState implements Steppable{
         "  [-mixedRaceGroupFraction fracMin]    # Double; default .5\n" +
         "  [-recruitmentRequired frac]          # Double; default .6\n" +
         "  [-likelihoodOfLeavingGroup frac]     # Double; default .1\n" +
-        "  [-seed seed].                        # Long; default rand");
+        "  [-outputFormat csv|columnar|none]    # default csv\n" +
+        "  [-encounterLog full|tracer|summary|none] # default full\n" +
+        "  [-similarityLog full|tracer|summary|none] # default full\n" +
+        "  [-tracerRate fracOfStudents]         # Double; default .01\n" +
+        "  [-logLevel error|warn|info|debug|trace] # default info\n" +
+        "  [-threads numThreads]                # Integer; default 0 (serial,\n" +
+        "                                       #  classic order; other counts\n" +
+        "                                       #  agree with each other, not\n" +
+        "                                       #  with 0)\n" +
+        "  [-groupSchedule parallel|serial]     # default parallel (with\n" +
+        "                                       #  -threads; serial runs the\n" +
+        "                                       #  colored groups one at a time)\n" +
+        "  [-checkpointInterval numYears]       # Integer; default 0 (none)\n" +
+        "  [-burnIn numYears]                   # Integer; default 0\n" +
+        "  [-warmStartCache directory]          # default none\n" +
+        "  [-warmStartCacheSize megabytes]      # Long; default 1024\n" +
+        "  [-seed seed].                        # Long; default rand\n" +
+        "   or: Sim -fork checkpointFile [-simtag newTag] [settings to change]");
         System.exit(1);
     }
 }
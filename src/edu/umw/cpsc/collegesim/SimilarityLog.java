@@ -0,0 +1,105 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * The stream of similarity computations (one per meeting of two students
+ * who weren't already friends) that makes up the
+ * <code>similarity<i>SIMTAG</i>.csv</code> (or <code>.col</code>) output
+ * file. (See {@link EventLog}.) At the SUMMARY level, it instead keeps a
+ * histogram of each year's similarities for each pair of races and each
+ * outcome (friends or not), in
+ * <code>similaritySummary<i>SIMTAG</i>.csv</code>.
+ */
+class SimilarityLog extends EventLog {
+
+    /** The number of equal-width similarity bins, from 0 to 1, in the
+     * SUMMARY level's histograms. */
+    static final int NUM_BINS = 20;
+
+    private static final String[] COLUMN_NAMES =
+        { "year", "races", "similarity", "becameFriends" };
+    private static final byte[] COLUMN_TYPES = { ColumnarWriter.INT,
+        ColumnarWriter.FACTOR, ColumnarWriter.DOUBLE, ColumnarWriter.LOGICAL };
+
+    // For the SUMMARY level: the year being tallied, and the histogram of
+    // similarities by race pair, by whether they became friends (0 or 1).
+    private int summaryYear;
+    private final long[][][] counts = new long[MIXED + 1][2][NUM_BINS];
+
+    SimilarityLog(Level level, double tracerRate, OutputFiles files,
+        long simtag, boolean columnar, boolean append) throws IOException {
+        super(level, tracerRate, files, "similarity"+simtag, columnar,
+            "year,races,similarity,becameFriends", COLUMN_NAMES,
+            COLUMN_TYPES,
+            new String[][] { null, racePairLabels(), null, null }, append);
+        openSummary("similaritySummary"+simtag+".csv",
+            "year,races,becameFriends,binLow,binHigh,count");
+    }
+
+    /**
+     * Record that, in the year passed, the two students passed met, had the
+     * similarity passed, and did or did not become friends.
+     */
+    void log(int year, Person p1, Person p2, double similarity,
+        boolean becameFriends) {
+        if (summarizing()) {
+            if (year != summaryYear) {
+                writeSummary();
+                summaryYear = year;
+            }
+            int bin = (int) (similarity * NUM_BINS);
+            bin = Math.max(0, Math.min(NUM_BINS - 1, bin));
+            counts[racePair(p1, p2)][becameFriends ? 1 : 0][bin]++;
+            return;
+        }
+        if (!wants(p1.getID(), p2.getID())) {
+            return;
+        }
+        int slot = claim();
+        years[slot] = year;
+        kinds[slot] = racePair(p1, p2);
+        values[slot] = similarity;
+        firsts[slot] = becameFriends ? 1 : 0;
+        publish();
+    }
+
+    void format(int slot, StringBuilder sb) {
+        sb.append(years[slot]).append(',')
+            .append(racePairLabel(kinds[slot])).append(',').append(values[slot]).append(',')
+            .append(firsts[slot] != 0);
+    }
+
+    void store(int slot, ColumnarWriter w) {
+        w.setInt(0, years[slot]);
+        w.setLevel(1, kinds[slot]);
+        w.setDouble(2, values[slot]);
+        w.setLogical(3, firsts[slot] != 0);
+    }
+
+    void summarize(PrintWriter pw) {
+        long total = 0;
+        for (int r = 0; r < counts.length; r++) {
+            for (int f = 0; f < 2; f++) {
+                for (int b = 0; b < NUM_BINS; b++) {
+                    total += counts[r][f][b];
+                }
+            }
+        }
+        if (total == 0) {
+            return;
+        }
+        for (int r = 0; r < counts.length; r++) {
+            for (int f = 0; f < 2; f++) {
+                for (int b = 0; b < NUM_BINS; b++) {
+                    pw.println(summaryYear + "," + racePairLabel(r) + "," +
+                        (f == 1) + "," + ((double) b / NUM_BINS) + "," +
+                        ((double) (b + 1) / NUM_BINS) + "," +
+                        counts[r][f][b]);
+                    counts[r][f][b] = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import sim.engine.*;
+
+/**
+ * Runs a parameter sweep -- many replicates of the simulation at each point
+ * of a grid of parameter settings -- in one process, and aggregates their
+ * results as they finish, instead of writing a full set of output files per
+ * replicate.
+ * <p></p>
+ * Usage is that of {@link Sim#main}, plus:
+ * <pre>
+ *   [-vary name=value,value,...]   # repeatable; name is any Sim option
+ *   [-replicates num]              # Integer; default 1
+ *   [-runThreads num]              # Integer; default number of processors
+ * </pre>
+ * The grid is every combination of the values of each <code>-vary</code>
+ * (<i>e.g.</i>, <code>-vary raceWeight=0,5,20 -vary probWhite=.7,.8</code>
+ * is six points), and the other options are the same at every point.
+ * Replicate r (counting from 0) of every point uses the seed
+ * <code>-seed</code>+r, so the points are compared on the same random
+ * numbers. Runs are spread over <code>-runThreads</code> threads, each
+ * running one {@link Sim} at a time (serially, unless <code>-threads</code>
+ * is also given), with no output files (see {@link
+ * Parameters#writeOutput}.) With <code>-burnIn</code>, only the years after
+ * the burn-in are reported, and with <code>-warmStartCache</code> as well,
+ * each burn-in is simulated at most once, however many runs and sweeps use
+ * it -- replicates that need it at the same time wait for the first -- as
+ * long as no other process is simulating it into the same directory at the
+ * same time. (See {@link Sim#startAfterBurnIn}.)
+ * <p></p>
+ * Each May, each run reports the {@link #STATISTICS} of its population (see
+ * {@link Sim#setYearEndObserver}). As runs finish, these are folded into a
+ * {@link RunningStatistics} for each statistic of each year of each point.
+ * (The replicates of a point are folded in replicate order, whatever order
+ * they finish in, so the results depend only on the options given.) At the
+ * end, they are written to <code>sweep<i>SIMTAG</i>.csv</code>, one row per
+ * point, year, and statistic, with the count, mean, standard deviation,
+ * minimum, {@link RunningStatistics#QUANTILES}, and maximum across the
+ * replicates; and the options to <code>sweep_params<i>SIMTAG</i>.txt</code>.
+ * <p></p>
+ * Simulations' own progress messages are only shown if
+ * <code>-logLevel</code> is given, since they would interleave.
+ */
+public class SweepRunner {
+
+    /** The statistics each run reports at the end of each year. */
+    static final String[] STATISTICS = { "numStudents", "numFriendships",
+        "meanFriendsWhite", "meanFriendsMinority",
+        "minorityFriendFractionWhite", "minorityFriendFractionMinority",
+        "numGroups", "meanGroupsPerStudent" };
+
+    // One point of the grid: its settings, the value of each varied
+    // parameter, and its accumulated statistics (by year, then statistic.)
+    private static class Point {
+        Parameters params;
+        String[] values;
+        ArrayList<RunningStatistics[]> years =
+            new ArrayList<RunningStatistics[]>();
+        // Finished replicates waiting for their predecessors to be folded.
+        HashMap<Integer,double[][]> pending = new HashMap<Integer,double[][]>();
+        int nextReplicate;
+    }
+
+    // The outcome of one replicate of one point.
+    private static class Run {
+        int point;
+        int replicate;
+        double[][] statistics;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Parameters base;
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<String[]> values = new ArrayList<String[]>();
+        int replicates = 1;
+        int runThreads = Runtime.getRuntime().availableProcessors();
+        boolean logLevelGiven = false;
+        try {
+            base = Parameters.parse(args);
+            for (int i=0; i<args.length; i++) {
+                if (args[i].equals("-vary")) {
+                    String spec = value(args, ++i);
+                    int eq = spec.indexOf('=');
+                    if (eq < 1) {
+                        throw new IllegalArgumentException(
+                            "Expected name=value,...: " + spec);
+                    }
+                    String name = spec.substring(0, eq);
+                    String[] vs = spec.substring(eq + 1).split(",");
+                    if (name.equals("seed") || name.equals("simtag") ||
+                        names.contains(name)) {
+                        throw new IllegalArgumentException(
+                            "Can't vary " + name);
+                    }
+                    for (int v=0; v<vs.length; v++) {
+                        if (!base.copy().set(name, vs[v])) {
+                            throw new IllegalArgumentException(
+                                "No such option: -" + name);
+                        }
+                    }
+                    names.add(name);
+                    values.add(vs);
+                } else if (args[i].equals("-replicates")) {
+                    replicates = Integer.parseInt(value(args, ++i));
+                } else if (args[i].equals("-runThreads")) {
+                    runThreads = Integer.parseInt(value(args, ++i));
+                } else if (args[i].equals("-logLevel")) {
+                    logLevelGiven = true;
+                }
+            }
+            if (replicates < 1 || runThreads < 1) {
+                throw new IllegalArgumentException(
+                    "-replicates and -runThreads must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsageAndQuit();
+            return;
+        }
+        Log.LEVEL = logLevelGiven ? base.logLevel : Log.WARN;
+
+        List<Point> points = grid(base, names, values);
+        writeParams(base, names, values, replicates, runThreads);
+
+        int numRuns = points.size() * replicates;
+        System.out.println("Sweep: " + points.size() + " points x " +
+            replicates + " replicates, on " + runThreads + " threads");
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(runThreads);
+        CompletionService<Run> runs = new ExecutorCompletionService<Run>(pool);
+        for (int r=0; r<replicates; r++) {
+            for (int p=0; p<points.size(); p++) {
+                runs.submit(replicate(points.get(p), p, r));
+            }
+        }
+        try {
+            for (int finished=1; finished<=numRuns; finished++) {
+                Run run = runs.take().get();
+                fold(points.get(run.point), run);
+                System.out.println("Finished run " + finished + " of " +
+                    numRuns + " (point " + run.point + ", replicate " +
+                    run.replicate + ") after " +
+                    (System.currentTimeMillis() - start) / 1000.0 + "s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            System.exit(2);
+        } finally {
+            pool.shutdown();
+        }
+
+        writeResults(base, names, points);
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("No value given for " +
+                args[i - 1]);
+        }
+        return args[i];
+    }
+
+    // Every combination of the values of the varied parameters, the first
+    // varying slowest.
+    private static List<Point> grid(Parameters base, List<String> names,
+        List<String[]> values) {
+        List<Point> points = new ArrayList<Point>();
+        int[] index = new int[names.size()];
+        while (true) {
+            Point point = new Point();
+            point.params = base.copy();
+            point.values = new String[names.size()];
+            for (int n=0; n<names.size(); n++) {
+                point.values[n] = values.get(n)[index[n]];
+                point.params.set(names.get(n), point.values[n]);
+            }
+            points.add(point);
+
+            int n = names.size() - 1;
+            while (n >= 0 && ++index[n] == values.get(n).length) {
+                index[n--] = 0;
+            }
+            if (n < 0) {
+                return points;
+            }
+        }
+    }
+
+    // The task of running replicate r of the point passed (which is number
+    // p.)
+    private static Callable<Run> replicate(final Point point, final int p,
+        final int r) {
+        return new Callable<Run>() {
+            public Run call() throws IOException {
+                Parameters params = point.params.copy();
+                params.seed = point.params.seed + r;
+                params.writeOutput = false;
+                final ArrayList<double[]> years = new ArrayList<double[]>();
+                Sim sim = Sim.startAfterBurnIn(params);
+                sim.setYearEndObserver(new Steppable() {
+                    public void step(SimState state) {
+                        years.add(measure((Sim) state));
+                    }
+                });
+                while (sim.schedule.step(sim)) {
+                }
+                sim.finish();
+
+                Run run = new Run();
+                run.point = p;
+                run.replicate = r;
+                run.statistics = years.toArray(new double[years.size()][]);
+                return run;
+            }
+        };
+    }
+
+    /**
+     * Returns the {@link #STATISTICS} of the simulation passed as it stands.
+     */
+    static double[] measure(Sim sim) {
+        Population people = sim.getPeople();
+        long[] students = new long[Person.Race.values().length];
+        long[] friends = new long[students.length];
+        double[] minorityFractions = new double[students.length];
+        long[] withFriends = new long[students.length];
+        long groupMemberships = 0;
+        for (int x = 0; x < people.size(); x++) {
+            Person p = people.get(x);
+            int race = p.getRace().ordinal();
+            int degree = sim.peopleGraph.getDegree(p);
+            students[race]++;
+            friends[race] += degree;
+            groupMemberships += p.getNumGroups();
+            if (degree > 0) {
+                int minorities = 0;
+                for (int i = 0; i < degree; i++) {
+                    if (sim.peopleGraph.getFriend(p, i).getRace() ==
+                        Person.Race.MINORITY) {
+                        minorities++;
+                    }
+                }
+                minorityFractions[race] += minorities / (double) degree;
+                withFriends[race]++;
+            }
+        }
+        int white = Person.Race.WHITE.ordinal();
+        int minority = Person.Race.MINORITY.ordinal();
+        return new double[] {
+            people.size(),
+            (friends[white] + friends[minority]) / 2,
+            friends[white] / (double) students[white],
+            friends[minority] / (double) students[minority],
+            minorityFractions[white] / withFriends[white],
+            minorityFractions[minority] / withFriends[minority],
+            sim.getNumGroups(),
+            groupMemberships / (double) people.size() };
+    }
+
+    // Fold the run passed into its point's statistics, along with any
+    // later replicates it was holding up.
+    private static void fold(Point point, Run run) {
+        point.pending.put(run.replicate, run.statistics);
+        double[][] statistics;
+        while ((statistics = point.pending.remove(point.nextReplicate)) !=
+            null) {
+            for (int y = 0; y < statistics.length; y++) {
+                if (y == point.years.size()) {
+                    RunningStatistics[] year =
+                        new RunningStatistics[STATISTICS.length];
+                    for (int s = 0; s < year.length; s++) {
+                        year[s] = new RunningStatistics();
+                    }
+                    point.years.add(year);
+                }
+                for (int s = 0; s < STATISTICS.length; s++) {
+                    point.years.get(y)[s].add(statistics[y][s]);
+                }
+            }
+            point.nextReplicate++;
+        }
+    }
+
+    private static void writeParams(Parameters base, List<String> names,
+        List<String[]> values, int replicates, int runThreads)
+        throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(
+            "./sweep_params" + base.simtag + ".txt")));
+        base.print(out);
+        for (int n=0; n<names.size(); n++) {
+            out.println("vary=" + names.get(n) + "=" +
+                String.join(",", values.get(n)));
+        }
+        out.println("replicates=" + replicates);
+        out.println("runThreads=" + runThreads);
+        out.close();
+    }
+
+    private static void writeResults(Parameters base, List<String> names,
+        List<Point> points) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(
+            "sweep" + base.simtag + ".csv")));
+        StringBuilder header = new StringBuilder();
+        for (int n=0; n<names.size(); n++) {
+            header.append(names.get(n)).append(',');
+        }
+        header.append("year,statistic,n,mean,sd,min");
+        for (int q=0; q<RunningStatistics.QUANTILES.length; q++) {
+            header.append(",q").append(
+                Math.round(RunningStatistics.QUANTILES[q] * 100));
+        }
+        header.append(",max");
+        out.println(header);
+        for (int p=0; p<points.size(); p++) {
+            Point point = points.get(p);
+            String prefix = "";
+            for (int n=0; n<names.size(); n++) {
+                prefix += point.values[n] + ",";
+            }
+            for (int y=0; y<point.years.size(); y++) {
+                for (int s=0; s<STATISTICS.length; s++) {
+                    RunningStatistics stats = point.years.get(y)[s];
+                    StringBuilder row = new StringBuilder(prefix);
+                    row.append(point.params.burnInYears + y).append(',')
+                        .append(STATISTICS[s])
+                        .append(',').append(stats.getCount())
+                        .append(',').append(stats.getMean())
+                        .append(',').append(stats.getStandardDeviation())
+                        .append(',').append(stats.getMin());
+                    for (int q=0; q<RunningStatistics.QUANTILES.length; q++) {
+                        row.append(',').append(stats.getQuantile(q));
+                    }
+                    row.append(',').append(stats.getMax());
+                    out.println(row);
+                }
+            }
+        }
+        out.close();
+    }
+
+    /** (public simply to get it in the JavaDoc.) */
+    public static void printUsageAndQuit() {
+        System.err.println(
+        "Usage: SweepRunner [Sim options]       # see Sim\n" +
+        "  [-vary name=value,value,...]         # repeatable\n" +
+        "  [-replicates num]                    # Integer; default 1\n" +
+        "  [-runThreads num]                    # Integer; default #cpus");
+        System.exit(1);
+    }
+}
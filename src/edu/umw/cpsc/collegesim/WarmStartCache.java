@@ -0,0 +1,328 @@
+package edu.umw.cpsc.collegesim;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A directory of simulations saved at the end of their burn-in (see {@link
+ * Parameters#burnInYears}), so that every run with the same burn-in -- the
+ * replicates of a sweep that vary only later settings, say, or the same
+ * sweep run again -- only pays for it once.
+ * <p></p>
+ * Each entry is a checkpoint (see {@link Sim#fork}), named for the SHA-256
+ * hash of a description of everything the burn-in depends on: the seed,
+ * the sizes of the population and the groups, every weight and rate, the
+ * number of years, and whether students and groups step serially or in
+ * parallel (see {@link #describe}). The description is kept next to it, in
+ * a ".txt" file, and checked whenever the entry is used. Anything else --
+ * the SIMTAG, the length of the run, the output settings, the number of
+ * threads -- can differ between runs that share an entry.
+ * <p></p>
+ * Whenever an entry is added, the least recently used entries (by the
+ * modification times of their files, which are updated whenever they're
+ * used) are deleted until the directory is back under its size limit.
+ * Entries are written to temporary files and renamed into place, so any
+ * number of runs, in this process or others, can share a directory. Runs in
+ * the same process that need the same entry at the same time (the
+ * replicates of a sweep, say) simulate it only once: the rest wait for it
+ * (see {@link #load}). Runs in separate processes don't know about each
+ * other, and may each simulate it.
+ * <p></p>
+ * The description doesn't cover the model's code: empty the directory
+ * after changing it (or change {@link #FORMAT}.)
+ */
+class WarmStartCache {
+
+    /** The version of what entries hold. Entries of other versions are
+     * never used. */
+    static final int FORMAT = 1;
+
+    private final File directory;
+    private final long maxBytes;
+
+    // The entries being simulated in this process, by directory and key, so
+    // that runs that need one already under way can wait for it.
+    private static final ConcurrentHashMap<String,FutureTask<Sim>>
+        IN_PROGRESS = new ConcurrentHashMap<String,FutureTask<Sim>>();
+
+    /**
+     * Use (creating it, if need be) the directory passed, holding no more
+     * than the number of bytes passed.
+     */
+    WarmStartCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+    }
+
+    /**
+     * Returns a description of every setting passed that the state of a
+     * simulation at the end of its burn-in depends on, one "name=value" per
+     * line.
+     */
+    static String describe(Parameters p) {
+        return "format=" + FORMAT + "\n" +
+            "burnIn=" + p.burnInYears + "\n" +
+            "seed=" + p.seed + "\n" +
+            "parallel=" + (p.numThreads > 0) + "\n" +
+            "serialGroupSchedule=" + p.serialGroupSchedule + "\n" +
+            "initNumPeople=" + p.initNumPeople + "\n" +
+            "initNumGroups=" + p.initNumGroups + "\n" +
+            "numFreshmenPerYear=" + p.numFreshmenPerYear + "\n" +
+            "numNewGroupsPerYear=" + p.numNewGroupsPerYear + "\n" +
+            "dropoutRate=" + p.dropoutRate + "\n" +
+            "dropoutIntercept=" + p.dropoutIntercept + "\n" +
+            "probWhite=" + p.probWhite + "\n" +
+            "raceWeight=" + p.raceWeight + "\n" +
+            "friendshipCoefficient=" + p.friendshipCoefficient + "\n" +
+            "friendshipIntercept=" + p.friendshipIntercept + "\n" +
+            "numToMeetGroup=" + p.numToMeetGroup + "\n" +
+            "numToMeetPop=" + p.numToMeetPop + "\n" +
+            "decayThreshold=" + p.decayThreshold + "\n" +
+            "initNumForcedOppRaceFriends=" + p.initNumForcedOppRaceFriends +
+                "\n" +
+            "peerDriftRate=" + p.peerDriftRate + "\n" +
+            "peerDriftDistance=" + p.peerDriftDistance + "\n" +
+            "constantAttributePoolSize=" + p.constantAttributePoolSize + "\n" +
+            "numPreferences=" + p.numPreferences + "\n" +
+            "preferencePoolSize=" + p.preferencePoolSize + "\n" +
+            "numHobbies=" + p.numHobbies + "\n" +
+            "hobbyPoolSize=" + p.hobbyPoolSize + "\n" +
+            "recruitmentRequired=" + p.recruitmentRequired + "\n" +
+            "likelihoodOfLeavingGroup=" + p.likelihoodOfLeavingGroup + "\n" +
+            "groupDriftRate=" + p.groupDriftRate + "\n" +
+            "groupDriftDistance=" + p.groupDriftDistance + "\n" +
+            "initNumMixedRaceGroups=" + p.initNumMixedRaceGroups + "\n" +
+            "mixedRaceGroupFraction=" + p.mixedRaceGroupFraction + "\n";
+    }
+
+    /**
+     * Returns a new copy of the saved simulation for the description
+     * passed. If there isn't one, the simulation burnIn returns is saved as
+     * the entry, and returned -- unless another thread in this process is
+     * already doing that for the same entry, in which case this waits for it
+     * to finish and reads the entry it saved. (If that fails, or the entry
+     * is gone again by then, this simulates it after all.)
+     */
+    Sim load(final String description, final Callable<Sim> burnIn)
+        throws IOException {
+        Sim sim = read(description);
+        if (sim != null) {
+            return sim;
+        }
+        String name = directory.getAbsolutePath() + File.separator +
+            key(description);
+        FutureTask<Sim> task = new FutureTask<Sim>(new Callable<Sim>() {
+            public Sim call() throws Exception {
+                Sim sim = burnIn.call();
+                put(description, sim);
+                return sim;
+            }
+        });
+        FutureTask<Sim> running = IN_PROGRESS.putIfAbsent(name, task);
+        if (running != null) {
+            try {
+                running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                    "Interrupted waiting for a burn-in");
+            } catch (ExecutionException e) {
+                // (It's simulated below.)
+            } catch (CancellationException e) {
+                // (Its thread found the entry already there.)
+            }
+            sim = read(description);
+            if (sim != null) {
+                return sim;
+            }
+            sim = call(burnIn);
+            put(description, sim);
+            return sim;
+        }
+        try {
+            // (The entry may have been finished since it was first looked
+            // for.)
+            sim = read(description);
+            if (sim != null) {
+                task.cancel(false);
+                return sim;
+            }
+            task.run();
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted simulating a burn-in");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            IN_PROGRESS.remove(name, task);
+        }
+    }
+
+    // A new copy of the saved simulation for the description passed, or
+    // null if there isn't one (or it was deleted, by another process's
+    // eviction, before it could be read.)
+    private Sim read(String description) throws IOException {
+        File entry = get(description);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            Sim sim = Sim.readCheckpoint(entry);
+            Log.info("Warm start from " + entry);
+            return sim;
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Sim call(Callable<Sim> burnIn) throws IOException {
+        try {
+            return burnIn.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Returns the saved simulation for the description passed (and marks it
+     * as just used), or null if there isn't one.
+     */
+    File get(String description) throws IOException {
+        String key = key(description);
+        File entry = new File(directory, key + ".ckpt");
+        File text = new File(directory, key + ".txt");
+        synchronized (WarmStartCache.class) {
+            if (!entry.exists() || !text.exists()) {
+                return null;
+            }
+            String saved = new String(Files.readAllBytes(text.toPath()),
+                StandardCharsets.UTF_8);
+            if (!saved.equals(description)) {
+                return null;
+            }
+            entry.setLastModified(System.currentTimeMillis());
+            return entry;
+        }
+    }
+
+    /**
+     * Save the simulation passed, which must be between steps, as the entry
+     * for the description passed, and then make room for it.
+     */
+    void put(String description, Sim sim) throws IOException {
+        String key = key(description);
+        File entryTemp = File.createTempFile(key, ".tmp", directory);
+        File textTemp = File.createTempFile(key, ".tmp", directory);
+        try {
+            OutputStream out = new FileOutputStream(entryTemp);
+            try {
+                sim.writeToCheckpoint(out);
+            } finally {
+                out.close();
+            }
+            Files.write(textTemp.toPath(),
+                description.getBytes(StandardCharsets.UTF_8));
+            synchronized (WarmStartCache.class) {
+                File entry = new File(directory, key + ".ckpt");
+                Files.move(textTemp.toPath(),
+                    new File(directory, key + ".txt").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                Files.move(entryTemp.toPath(), entry.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                evict(entry);
+            }
+        } finally {
+            entryTemp.delete();
+            textTemp.delete();
+        }
+    }
+
+    // Delete the least recently used entries (other than the one passed)
+    // until the directory's entries fit in maxBytes.
+    private void evict(File keep) {
+        File[] entries = directory.listFiles();
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        int n = 0;
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].getName().endsWith(".ckpt")) {
+                entries[n++] = entries[i];
+                total += entries[i].length() + textFor(entries[i]).length();
+            }
+        }
+        entries = Arrays.copyOf(entries, n);
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < entries.length && total > maxBytes; i++) {
+            if (entries[i].equals(keep)) {
+                continue;
+            }
+            File text = textFor(entries[i]);
+            total -= entries[i].length() + text.length();
+            Log.info("Evicting warm start " + entries[i]);
+            entries[i].delete();
+            text.delete();
+        }
+    }
+
+    private static File textFor(File entry) {
+        String name = entry.getName();
+        return new File(entry.getParentFile(),
+            name.substring(0, name.length() - ".ckpt".length()) + ".txt");
+    }
+
+    // The hex SHA-256 hash of the description passed.
+    private static String key(String description) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+                description.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(2 * hash.length);
+            for (int i = 0; i < hash.length; i++) {
+                sb.append(String.format("%02x", hash[i] & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}